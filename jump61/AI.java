@@ -1,23 +1,20 @@
 package jump61;
 
-import java.util.ArrayList;
-import java.util.Random;
-
-import static jump61.Side.*;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** An automated Player.
  *  @author Zeline Wang
  */
 class AI extends Player {
-    /** An AI player choosing the best move
-     *  from depth 4.
-     *  @param game game
-     *  @param color the color
-     *  @param seed random seed, kinda unless, depends on you
-     *  */
-    AI(Game game, Side color, long seed) {
+    /** An AI player of COLOR in GAME.  It uses no random numbers: with
+     *  one thread and no time limit, it always makes the same move in
+     *  the same position. */
+    AI(Game game, Side color) {
         super(game, color);
-        _random = new Random(seed);
     }
     @Override
     String getMove() {
@@ -30,116 +27,349 @@ class AI extends Player {
 
 
 
-    /** Return a move after searching the game tree to DEPTH>0 moves
-     *  from the current position. Assumes the game is not over. */
+    /** Return a move after searching the game tree from the current
+     *  position, as limited by my side's search parameters, or without
+     *  searching, if the game's tablebase covers the position or its
+     *  opening book has a move for it.  In the late game (see
+     *  lateGame), a Prover tries to prove a win in the background while
+     *  the search goes on, and if it succeeds, I play its winning move
+     *  instead, since a forced win often lies beyond the search's
+     *  horizon. */
     private int searchForMove() {
-        Board work = new Board(getBoard());
-        int value;
-        assert getSide() == work.whoseMove();
-        _foundMove = -1;
-        if (getSide() == RED) {
-            value = minMax(work, 4, true,
-                    1, Integer.MIN_VALUE, Integer.MAX_VALUE);
-        } else {
-            value = minMax(work, 4, true,
-                    -1, Integer.MIN_VALUE, Integer.MAX_VALUE);
-        }
-        return _foundMove;
+        Board board = getBoard();
+        Tablebase tablebase = getGame().tablebase();
+        if (tablebase != null && tablebase.covers(board)) {
+            return tablebase.bestMove(board);
+        }
+        OpeningBook book = getGame().openingBook();
+        if (book != null) {
+            int move = book.probe(board.hashKey());
+            if (move >= 0 && board.isLegal(getSide(), move)) {
+                Utils.debug(1, "%s book: %s", getSide(),
+                            board.moveString(move));
+                return move;
+            }
+        }
+        SearchParams params = getGame().searchParams(getSide());
+        ForkJoinTask<Integer> proof = null;
+        if (lateGame(board)) {
+            Board position = BitBoard.of(board);
+            proof = ForkJoinPool.commonPool().submit(
+                () -> proveMove(position, params.timeLimit()));
+        }
+        int move = findMove(board, params, getGame().transpositions());
+        if (proof != null) {
+            int proven = proof.join();
+            if (proven >= 0) {
+                Utils.debug(1, "%s proven win: %s", getSide(),
+                            board.moveString(proven));
+                return proven;
+            }
+        }
+        return move;
     }
 
-    /** Returns valid moves for current player.
-     * @param board find from
-     * @param color now player
-     * */
-    ArrayList<Integer> finder(Board board, Side color) {
-        ArrayList<Integer> res = new ArrayList<>();
-        for (int i = 0; i < board.size() * board.size(); i++) {
-            if (board.isLegal(color, i)) {
-                res.add(i);
+    /** Return true iff BOARD is far enough into its game for a Prover
+     *  to be likely to settle it: every square has been taken, so that
+     *  any move may start a chain reaction.  (In trial games on 6x6 and
+     *  8x8 boards, proofs within PROOF_NODES nodes came only after
+     *  that.)  Boards larger than the standard sizes are never late. */
+    static boolean lateGame(Board board) {
+        return board.size() <= Defaults.MAX_BOARD_SIZE
+            && board.numOfSide(Side.WHITE) == 0;
+    }
+
+    /** Return a move proven to win POSITION for the player to move, or
+     *  -1 if none is found by searching PROOF_NODES nodes or for
+     *  MILLIS milliseconds (0 for no limit), whichever is less. */
+    private int proveMove(Board position, long millis) {
+        if (_prover == null) {
+            _prover = new Prover(Defaults.TABLE_SIZE);
+        }
+        SearchParams limits = new SearchParams();
+        limits.setNodeLimit(PROOF_NODES);
+        limits.setTimeLimit(millis);
+        if (_prover.prove(position, limits) != position.whoseMove()) {
+            return -1;
+        }
+        int[] line = _prover.line();
+        return line.length > 0 ? line[0] : -1;
+    }
+
+    /** Return a move for the player to move in POSITION, which must not
+     *  be over, searching with PARAMS and sharing TABLE.  Searches by
+     *  iterative deepening: to depth 1, 2, ..., each iteration starting
+     *  with the transposition table left by the last.  Stops after the
+     *  depth limit in PARAMS, if any.  Without one, or a time or node
+     *  limit, stops after depth DEPTH; otherwise, goes as deep
+     *  as the limits allow, abandoning the iteration in progress when
+     *  they run out and returning the move from the last completed one.
+     *  With more than one thread, in SPLIT mode each iteration splits
+     *  the root moves among them (see searchSplit); in SMP mode, the
+     *  calling thread deepens alone, as with one thread, while the
+     *  others run as Helpers until it is done.  With one thread, the
+     *  search is sequential and, unless time is limited,
+     *  deterministic. */
+    int findMove(Board position, SearchParams params,
+                 TranspositionTable table) {
+        Side player = position.whoseMove();
+        table.newSearch();
+        SearchBudget budget = new SearchBudget(params);
+        int area = position.size() * position.size();
+        int threads = params.threads();
+        if (_searchers == null || _searchers.length != threads
+            || _searchers[0].area() != area) {
+            _searchers = new Searcher[threads];
+            for (int k = 0; k < threads; k += 1) {
+                _searchers[k] = new Searcher(area);
             }
+            _moves = new int[area];
         }
-        return res;
+        for (Searcher searcher : _searchers) {
+            searcher.start(position, table, budget);
+        }
+        int maxDepth = params.limited() ? Searcher.MAX_DEPTH : DEPTH;
+        if (params.depthLimit() > 0) {
+            maxDepth = Math.min(params.depthLimit(), Searcher.MAX_DEPTH);
+        }
+        finder(position, player, _moves);
+        int choice = _moves[0];
+        boolean smp = threads > 1 && params.mode() == SearchParams.Mode.SMP;
+        ForkJoinTask<Void> helpers = null;
+        if (smp) {
+            helpers = pool(threads - 1).submit(new Helpers(maxDepth));
+        }
+        long start = System.nanoTime();
+        for (int depth = 1; depth <= maxDepth; depth += 1) {
+            int value;
+            if (threads == 1 || smp) {
+                value = _searchers[0].searchRoot(depth);
+                _splitMove = _searchers[0].foundMove();
+            } else {
+                value = searchSplit(depth);
+            }
+            if (smp ? _searchers[0].aborted() : aborted()) {
+                break;
+            }
+            choice = _splitMove;
+            Utils.debug(1, "%s depth %d: %s value %d, %d nodes, %d ms",
+                        player, depth, position.moveString(choice), value,
+                        budget.nodes(),
+                        (System.nanoTime() - start) / 1_000_000);
+            if (Math.abs(value) == Searcher.WIN) {
+                break;
+            }
+        }
+        if (helpers != null) {
+            budget.stop();
+            helpers.join();
+        }
+        return choice;
     }
 
-    /**Through Game Tree finding the min and Max.
-     * @param alpha the min
-     * @param beta the max
-     * @param board the working current board
-     * @param depth Tree depth
-     * @param saveMove save the move or just testing
-     * @param sense sense == 1 is RED, -1 is BLUE
-     * @return min or max
-     * */
-    private int minMax(Board board, int depth, boolean saveMove,
-                       int sense, int alpha, int beta) {
-        Board copy = new Board(board);
-        if (depth == 0) {
-            return staticEval(board, Integer.MAX_VALUE);
-        } else {
-            if (sense == 1) {
-                if (board.getWinner() == BLUE) {
-                    return Integer.MIN_VALUE;
-                }
-                int best = Integer.MIN_VALUE;
-                for (int i : finder(copy, RED)) {
-                    Board test = new Board(copy);
-                    Side player = test.whoseMove();
-                    test.addSpot(player, i);
-                    int response = minMax(test, depth - 1,
-                            false, -1, alpha, beta);
-                    best = Math.max(best, response);
-                    alpha = Math.max(alpha, best);
-                    if (response == best && saveMove) {
-                        _foundMove = i;
+    /** Search the position of my searchers to DEPTH, with the root moves
+     *  divided among all of my searchers.  The first move (the best of
+     *  the last iteration, if it is still in the table) is searched
+     *  alone with a full window, to establish a good bound.  Then each
+     *  searcher takes the remaining moves one at a time.  It searches
+     *  each first with a null window at the best value yet found by any
+     *  searcher, so that later moves are cut off on the strength of
+     *  earlier ones, and again with a full window only if it proves
+     *  better.  Sets _splitMove to the best move and returns its value,
+     *  for the player to move, which is meaningless if the search was
+     *  abandoned. */
+    private int searchSplit(int depth) {
+        Searcher first = _searchers[0];
+        int count = first.rootMoves(_moves);
+        int value = first.searchMove(_moves[0], depth, -Searcher.WIN,
+                                     Searcher.WIN);
+        if (first.aborted()) {
+            return 0;
+        }
+        RootSplit split = new RootSplit(count, depth, value);
+        pool(_searchers.length).invoke(split);
+        _splitMove = split._bestMove;
+        first.recordRoot(depth, split._best, split._bestMove);
+        return split._best;
+    }
+
+    /** Return true iff any of my searchers abandoned its last search. */
+    private boolean aborted() {
+        for (Searcher searcher : _searchers) {
+            if (searcher.aborted()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return a fork/join pool of THREADS threads, shared by all AIs
+     *  searching with that many threads. */
+    private static ForkJoinPool pool(int threads) {
+        synchronized (POOLS) {
+            ForkJoinPool pool = POOLS.get(threads);
+            if (pool == null) {
+                pool = new ForkJoinPool(threads);
+                POOLS.put(threads, pool);
+            }
+            return pool;
+        }
+    }
+
+    /** The helper threads of a Lazy SMP search.  Each of my searchers
+     *  but the first deepens its own search of the whole position,
+     *  alongside the first, until stopped.  They share the
+     *  transposition table, so that each profits from the positions
+     *  the others have already searched; to keep them from searching
+     *  the same positions in step, every other helper starts a ply
+     *  deeper.  Unlike a split search, this keeps all threads busy
+     *  even when there are few moves to divide among them. */
+    private class Helpers extends RecursiveAction {
+
+        /** Helpers that search to at most MAXDEPTH. */
+        Helpers(int maxDepth) {
+            _maxDepth = maxDepth;
+        }
+
+        @Override
+        protected void compute() {
+            RecursiveAction[] helpers =
+                new RecursiveAction[_searchers.length - 1];
+            for (int k = 0; k < helpers.length; k += 1) {
+                final Searcher searcher = _searchers[k + 1];
+                final int skew = k % 2;
+                helpers[k] = new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        for (int depth = 1 + skew;
+                             depth <= _maxDepth && !searcher.aborted();
+                             depth += 1) {
+                            searcher.searchRoot(depth);
+                        }
                     }
-                    if (alpha >= beta) {
-                        break;
+                };
+            }
+            invokeAll(helpers);
+        }
+
+        /** Greatest depth to search. */
+        private final int _maxDepth;
+    }
+
+    /** One iteration of a split root search: the root moves after the
+     *  first, divided among my searchers as each becomes free. */
+    private class RootSplit extends RecursiveAction {
+
+        /** A split of the first COUNT moves of _moves, searching to
+         *  DEPTH.  The first move, already searched, has value BEST. */
+        RootSplit(int count, int depth, int best) {
+            _count = count;
+            _depth = depth;
+            _best = best;
+            _bestMove = _moves[0];
+            _next = new AtomicInteger(1);
+        }
+
+        @Override
+        protected void compute() {
+            RecursiveAction[] workers =
+                new RecursiveAction[_searchers.length];
+            for (int k = 0; k < workers.length; k += 1) {
+                final Searcher searcher = _searchers[k];
+                workers[k] = new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        work(searcher);
                     }
+                };
+            }
+            invokeAll(workers);
+        }
+
+        /** Search root moves with SEARCHER until there are none left or
+         *  the search is abandoned. */
+        private void work(Searcher searcher) {
+            for (int i = _next.getAndIncrement();
+                 i < _count && !searcher.aborted();
+                 i = _next.getAndIncrement()) {
+                int move = _moves[i];
+                int bound = _best;
+                if (bound == Searcher.WIN) {
+                    break;
                 }
-                return best;
-            } else  {
-                if (board.getWinner() == RED) {
-                    return Integer.MAX_VALUE;
+                int value = searcher.searchMove(move, _depth, bound,
+                                                bound + 1);
+                if (value > bound && !searcher.aborted()) {
+                    value = searcher.searchMove(move, _depth, bound,
+                                                Searcher.WIN);
                 }
-                int best = Integer.MAX_VALUE;
-                for (int i : finder(copy, BLUE)) {
-                    Board test = new Board(copy);
-                    Side player = test.whoseMove();
-                    test.addSpot(player, i);
-                    int response = minMax(test, depth - 1,
-                            false, 1, alpha, beta);
-                    best = Math.min(best, response);
-                    beta = Math.min(beta, best);
-                    if (response == best && saveMove) {
-                        _foundMove = i;
-                    }
-                    if (beta <= alpha) {
-                        break;
-                    }
+                if (!searcher.aborted()) {
+                    offer(move, value);
                 }
-                return best;
             }
         }
+
+        /** Make MOVE, of value VALUE, the best move if it is better than
+         *  the best so far. */
+        private synchronized void offer(int move, int value) {
+            if (value > _best) {
+                _best = value;
+                _bestMove = move;
+            }
+        }
+
+        /** Number of root moves. */
+        private final int _count;
+        /** Depth of the search. */
+        private final int _depth;
+        /** Index in _moves of the next move to search. */
+        private final AtomicInteger _next;
+        /** Best value found so far.  Read without locking by searchers
+         *  choosing their windows. */
+        private volatile int _best;
+        /** Move with value _best. */
+        private volatile int _bestMove;
     }
 
-    /** Return a heuristic estimate of the value of board position B.
-     *  Use WINNINGVALUE to indicate a win for Red and -WINNINGVALUE to
-     *  indicate a win for Blue. */
-    private int staticEval(Board b, int winningValue) {
-        int redCount = b.numOfSide(RED);
-        int blueCount = b.numOfSide(BLUE);
-        if (redCount == b.size() * b.size()) {
-            return winningValue;
-        } else if (blueCount == b.size() * b.size()) {
-            return -winningValue;
-        } else {
-            return redCount - blueCount;
+    /** Stores the valid moves for current player in MOVES, returning
+     *  how many there are.  MOVES must have room for every square.
+     * @param board find from
+     * @param color now player
+     * @param moves where to put the moves
+     * @return number of moves
+     * */
+    int finder(Board board, Side color, int[] moves) {
+        int count = 0;
+        for (int i = 0; i < board.size() * board.size(); i++) {
+            if (board.isLegal(color, i)) {
+                moves[count] = i;
+                count += 1;
+            }
         }
+        return count;
     }
 
-    /** A random-number generator used for move selection. */
-    private Random _random;
+    /** Depth of the game-tree search when neither time nor nodes are
+     *  limited. */
+    private static final int DEPTH = 4;
+
+    /** Most nodes searched by the Prover in each late-game move. */
+    private static final long PROOF_NODES = 50_000;
+
+    /** Fork/join pools for split searches, indexed by their number of
+     *  threads. */
+    private static final HashMap<Integer, ForkJoinPool> POOLS =
+        new HashMap<>();
+
+    /** Move buffer for finder and searchSplit. */
+    private int[] _moves;
+
+    /** Proves wins in the late game, or null until first needed. */
+    private Prover _prover;
+
+    /** My searchers, one per search thread. */
+    private Searcher[] _searchers;
 
-    /** Used to convey moves discovered by minMax. */
-    private int _foundMove;
+    /** Best move found by the last iteration of findMove. */
+    private int _splitMove;
 }
@@ -0,0 +1,478 @@
+package jump61;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Performance measurements of the AI, run from the command line.
+ *  Usage:
+ *      java jump61.Benchmark search [SIZE [DEPTH [POSITIONS [MODE]]]]
+ *  reports the time the AI takes to search POSITIONS random positions on
+ *  a SIZE x SIZE board to DEPTH, with 1, 2, 4, and 8 threads divided
+ *  according to MODE ("split" or "smp"), and the speedup of each over
+ *  one thread.  Positions are the same on every run.
+ *      java jump61.Benchmark playouts [SIZE [GAMES [METHOD]]]
+ *  reports the rate at which GAMES random games are played out from the
+ *  start on a SIZE x SIZE board (by default, on each of 2, 4, 6, 8, and
+ *  10) by the Playout kernel ("kernel"), on a BitBoard where possible,
+ *  and for comparison by picking squares with java.util.Random until one
+ *  is legal, on a Board ("board") and on a BitBoard ("bitboard").  Each
+ *  size and method is measured in a JVM of its own, started with the
+ *  same options as this one, so that what the JIT compiler learns from
+ *  one does not slow another.  With METHOD, measures only that one, in
+ *  this JVM.
+ *      java jump61.Benchmark match [SIZE [MILLIS [GAMES]]]
+ *  plays GAMES games on a SIZE x SIZE board between the Monte Carlo
+ *  player and the alpha-beta AI, each given MILLIS milliseconds of one
+ *  thread per move, and reports the Monte Carlo player's score.  Each
+ *  game starts after a few random moves, and each opening is played
+ *  twice, with the players changing sides.  The openings and the Monte
+ *  Carlo player's seeds are the same on every run.
+ *      java jump61.Benchmark moves [SIZE [MOVES]]
+ *  reports the rate at which random moves are made on a large board of
+ *  SIZE x SIZE (by default, on each of 100, 200, 500, 1000, and 2000),
+ *  over MOVES moves from the start (by default, twice the number of
+ *  squares).
+ *      java jump61.Benchmark cascade [SIZE [MOVES]]
+ *  reports the time taken by MOVES moves on a SIZE x SIZE board set up so
+ *  that most of them set off cascades over much of the board, with
+ *  cascades toppled by 1, 2, 4, and 8 threads, and the speedup of each
+ *  over one thread.
+ *      java jump61.Benchmark scan [SIZE]
+ *  reports the time taken by each whole-board scan of CellScan on a
+ *  random SIZE x SIZE board, on and off the heap, one square at a time
+ *  and with the fastest CellScan available (run with --add-modules
+ *  jdk.incubator.vector to use vectors).
+ *  @author Zeline Wang
+ */
+class Benchmark {
+
+    /** Run the benchmark described by ARGS. */
+    public static void main(String... args) {
+        if (args.length > 0 && args[0].equals("playouts")) {
+            int games = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+            if (args.length > 3) {
+                playouts(Integer.parseInt(args[1]), games, args[3]);
+                return;
+            }
+            int[] sizes = PLAYOUT_SIZES;
+            if (args.length > 1) {
+                sizes = new int[] { Integer.parseInt(args[1]) };
+            }
+            for (int size : sizes) {
+                for (String method : PLAYOUT_METHODS) {
+                    if (!method.equals("bitboard")
+                        || size <= BitBoard.MAX_SIZE) {
+                        fork("playouts", Integer.toString(size),
+                             Integer.toString(games), method);
+                    }
+                }
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("match")) {
+            int size = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+            long millis = args.length > 2 ? Long.parseLong(args[2]) : 100;
+            int games = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            match(size, millis, games);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("moves")) {
+            int moves = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+            int[] sizes = LARGE_SIZES;
+            if (args.length > 1) {
+                sizes = new int[] { Integer.parseInt(args[1]) };
+            }
+            moveRate(LARGE_SIZES[0], moves);
+            for (int size : sizes) {
+                System.out.printf("%dx%d: %.0f moves/s%n", size, size,
+                                  moveRate(size, moves));
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("cascade")) {
+            int size = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+            int moves = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+            cascades(size, moves);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("scan")) {
+            int size = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+            scans(size);
+            return;
+        }
+        if (args.length == 0 || !args[0].equals("search")) {
+            System.err.println("Usage: java jump61.Benchmark search "
+                               + "[SIZE [DEPTH [POSITIONS [MODE]]]]");
+            System.err.println("       java jump61.Benchmark playouts "
+                               + "[SIZE [GAMES [METHOD]]]");
+            System.err.println("       java jump61.Benchmark match "
+                               + "[SIZE [MILLIS [GAMES]]]");
+            System.err.println("       java jump61.Benchmark moves "
+                               + "[SIZE [MOVES]]");
+            System.err.println("       java jump61.Benchmark cascade "
+                               + "[SIZE [MOVES]]");
+            System.err.println("       java jump61.Benchmark scan [SIZE]");
+            System.exit(1);
+        }
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 6;
+        int count = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        SearchParams.Mode mode =
+            args.length > 4 ? SearchParams.Mode.valueOf(args[4].toUpperCase())
+            : SearchParams.Mode.SPLIT;
+        search(positions(size, count, SEED), depth, mode);
+    }
+
+    /** Report the time taken to search each of POSITIONS to DEPTH with
+     *  each of THREAD_COUNTS threads, searching in MODE.  A first,
+     *  untimed, run with one thread warms up the JIT compiler. */
+    static void search(Board[] positions, int depth,
+                       SearchParams.Mode mode) {
+        timeSearch(positions, depth, mode, 1);
+        double base = 0;
+        for (int threads : THREAD_COUNTS) {
+            double seconds = timeSearch(positions, depth, mode, threads);
+            if (threads == 1) {
+                base = seconds;
+            }
+            System.out.printf("%d thread(s): %.3f s, speedup %.2f%n",
+                              threads, seconds, base / seconds);
+        }
+    }
+
+    /** Return the time in seconds taken to search each of POSITIONS to
+     *  DEPTH with THREADS threads, searching in MODE. */
+    static double timeSearch(Board[] positions, int depth,
+                             SearchParams.Mode mode, int threads) {
+        SearchParams params = new SearchParams();
+        params.setDepthLimit(depth);
+        params.setThreads(threads);
+        params.setMode(mode);
+        AI ai = new AI(null, Side.RED);
+        long start = System.nanoTime();
+        for (Board position : positions) {
+            TranspositionTable table =
+                new TranspositionTable(Defaults.TABLE_SIZE,
+                                       TranspositionTable.Replacement.DEPTH);
+            ai.findMove(position, params, table);
+        }
+        return (System.nanoTime() - start) * 1e-9;
+    }
+
+    /** Play GAMES games on a SIZE x SIZE board between a
+     *  MonteCarloPlayer and an AI, each searching for MILLIS
+     *  milliseconds per move on one thread, and report the result of
+     *  each and the MonteCarloPlayer's score.  Game #K starts after
+     *  OPENING_MOVES random moves chosen with seed K / 2, the
+     *  MonteCarloPlayer playing Red in even-numbered games. */
+    static void match(int size, long millis, int games) {
+        SearchParams params = new SearchParams();
+        params.setTimeLimit(millis);
+        int wins = 0;
+        long start = System.nanoTime();
+        for (int k = 0; k < games; k += 1) {
+            Side mcSide = k % 2 == 0 ? Side.RED : Side.BLUE;
+            MonteCarloPlayer mc =
+                new MonteCarloPlayer(null, mcSide, SEED + k);
+            AI ai = new AI(null, mcSide.opposite());
+            TranspositionTable table =
+                new TranspositionTable(Defaults.TABLE_SIZE,
+                                       TranspositionTable.Replacement.DEPTH);
+            Board board = new Board(size);
+            XorShift random = new XorShift(SEED + k / 2);
+            for (int m = 0; m < OPENING_MOVES; m += 1) {
+                Side player = board.whoseMove();
+                board.addSpot(player, board.randomMove(player, random));
+            }
+            int moves = 0;
+            while (!board.isTerminal()) {
+                Side player = board.whoseMove();
+                int n = player == mcSide ? mc.findMove(board, params)
+                    : ai.findMove(board, params, table);
+                board.addSpot(player, n);
+                moves += 1;
+            }
+            if (board.getWinner() == mcSide) {
+                wins += 1;
+            }
+            System.out.printf("game %d: Monte Carlo as %s %s in %d moves%n",
+                              k + 1, mcSide.toCapitalizedString(),
+                              board.getWinner() == mcSide ? "won" : "lost",
+                              moves);
+        }
+        System.out.printf("%dx%d, %d ms/move: Monte Carlo won %d of %d "
+                          + "(%.0f s)%n", size, size, millis, wins, games,
+                          (System.nanoTime() - start) * 1e-9);
+    }
+
+    /** Report the rate at which GAMES random games are played out from
+     *  the start on a SIZE x SIZE board by METHOD: "kernel", "board", or
+     *  "bitboard" (see the class comment). */
+    static void playouts(int size, int games, String method) {
+        switch (method) {
+        case "kernel":
+            Board board = BitBoard.of(new Board(size));
+            System.out.printf("%dx%d: Playout on %s: %.0f games/s%n",
+                              size, size, board.getClass().getSimpleName(),
+                              kernelRate(board, games));
+            break;
+        case "board":
+            playouts(new Board(size), games);
+            break;
+        case "bitboard":
+            playouts(new BitBoard(size), games);
+            break;
+        default:
+            throw new IllegalArgumentException("unknown method: " + method);
+        }
+    }
+
+    /** Run this program with arguments ARGS in a new JVM, started with
+     *  the same options and class path as this one, and wait for it to
+     *  finish, its output going to mine. */
+    static void fork(String... args) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java")
+                    .toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean()
+                       .getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Benchmark.class.getName());
+        command.addAll(List.of(args));
+        try {
+            int status = new ProcessBuilder(command).inheritIO().start()
+                .waitFor();
+            if (status != 0) {
+                System.exit(status);
+            }
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalStateException("cannot run benchmark", excp);
+        }
+    }
+
+    /** Report the rate at which BOARD, which must be in its initial
+     *  position, plays GAMES random games to the end (after a first,
+     *  untimed, round to warm up the JIT compiler).  The games are the
+     *  same on every run, and for every kind of Board. */
+    static void playouts(Board board, int games) {
+        playout(board, games, SEED);
+        long moves = 0;
+        long start = System.nanoTime();
+        moves += playout(board, games, SEED);
+        double seconds = (System.nanoTime() - start) * 1e-9;
+        System.out.printf("%dx%d: Random on %s: %.0f games/s, "
+                          + "%.0f moves/s%n", board.size(), board.size(),
+                          board.getClass().getSimpleName(), games / seconds,
+                          moves / seconds);
+    }
+
+    /** Return the rate, in games per second, at which the Playout kernel
+     *  plays GAMES random games to the end from the position on BOARD
+     *  (after a first, untimed, round to warm up the JIT compiler).  The
+     *  games are the same on every run. */
+    static double kernelRate(Board board, int games) {
+        Playout playout = new Playout(SEED);
+        for (int k = 0; k < games; k += 1) {
+            playout.winner(board);
+        }
+        playout = new Playout(SEED);
+        long start = System.nanoTime();
+        for (int k = 0; k < games; k += 1) {
+            playout.winner(board);
+        }
+        return games / ((System.nanoTime() - start) * 1e-9);
+    }
+
+    /** Play GAMES random games on BOARD from its current position, using
+     *  SEED to choose the moves, and restore that position afterwards.
+     *  Returns the number of moves made. */
+    static long playout(Board board, int games, long seed) {
+        Random random = new Random(seed);
+        int area = board.size() * board.size();
+        long moves = 0;
+        for (int k = 0; k < games; k += 1) {
+            int token = -1;
+            while (!board.isTerminal()) {
+                Side player = board.whoseMove();
+                int n;
+                do {
+                    n = random.nextInt(area);
+                } while (!board.isLegal(player, n));
+                int t = board.makeMove(player, n);
+                if (token < 0) {
+                    token = t;
+                }
+                moves += 1;
+            }
+            if (token >= 0) {
+                board.unmakeMove(token);
+            }
+        }
+        return moves;
+    }
+
+    /** Return the rate, in moves per second, at which addSpot makes
+     *  MOVES random moves (or as many as it takes to end the game) from
+     *  the start on a SIZE x SIZE board.  If MOVES is 0, makes twice as
+     *  many moves as there are squares. */
+    static double moveRate(int size, int moves) {
+        Random random = new Random(SEED);
+        Board board = new Board(size);
+        int area = size * size;
+        if (moves == 0) {
+            moves = 2 * area;
+        }
+        long start = System.nanoTime();
+        int m;
+        for (m = 0; m < moves && !board.isTerminal(); m += 1) {
+            Side player = board.whoseMove();
+            int n;
+            do {
+                n = random.nextInt(area);
+            } while (!board.isLegal(player, n));
+            board.addSpot(player, n);
+        }
+        return m / ((System.nanoTime() - start) * 1e-9);
+    }
+
+    /** Report the time taken to make MOVES random moves on a critical
+     *  SIZE x SIZE board with each of THREAD_COUNTS cascade threads.  A
+     *  first, untimed, run with one thread warms up the JIT compiler. */
+    static void cascades(int size, int moves) {
+        timeCascades(size, moves, 1);
+        double base = 0;
+        for (int threads : THREAD_COUNTS) {
+            double seconds = timeCascades(size, moves, threads);
+            if (threads == 1) {
+                base = seconds;
+            }
+            System.out.printf("%d thread(s): %.3f s, speedup %.2f%n",
+                              threads, seconds, base / seconds);
+        }
+        Board.setCascadeThreads(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Return the time in seconds taken to make MOVES random moves on a
+     *  critical SIZE x SIZE board, toppling with THREADS threads.  The
+     *  board has random colors, and four squares in five are full, so
+     *  that moves on them set off large cascades.  The moves are the same
+     *  on every run. */
+    static double timeCascades(int size, int moves, int threads) {
+        Random random = new Random(SEED);
+        Board board = new Board(size);
+        for (int r = 1; r <= size; r += 1) {
+            for (int c = 1; c <= size; c += 1) {
+                board.set(r, c, board.neighbors(r, c) - random.nextInt(5) / 4,
+                          random.nextBoolean() ? Side.RED : Side.BLUE);
+            }
+        }
+        Board.setCascadeThreads(threads);
+        int area = size * size;
+        long start = System.nanoTime();
+        for (int m = 0; m < moves && !board.isTerminal(); m += 1) {
+            Side player = board.whoseMove();
+            int n;
+            do {
+                n = random.nextInt(area);
+            } while (!board.isLegal(player, n));
+            board.addSpot(player, n);
+        }
+        return (System.nanoTime() - start) * 1e-9;
+    }
+
+    /** Report the time taken by the scans of a plain CellScan and of
+     *  CellScan.get() over random SIZE x SIZE boards on and off the
+     *  heap, after WARMUP rounds to warm up the JIT compiler. */
+    static void scans(int size) {
+        Random random = new Random(SEED);
+        Board[] boards = { new Board(size), Board.offHeap(size) };
+        for (int n = 0; n < size * size; n += 1) {
+            Board first = boards[0];
+            int spots =
+                1 + random.nextInt(first.neighbors(first.row(n),
+                                                   first.col(n)));
+            Side color = random.nextBoolean() ? Side.RED : Side.BLUE;
+            for (Board board : boards) {
+                board.set(n, spots, color);
+            }
+        }
+        CellScan[] scans = { new CellScan(), CellScan.get() };
+        for (int round = 0; round < WARMUP + 1; round += 1) {
+            for (Board board : boards) {
+                for (CellScan scan : scans) {
+                    CellStore cells = board.cells();
+                    long start = System.nanoTime();
+                    int[] over = new int[1];
+                    scan.overfull(cells, (n) -> over[0] += 1);
+                    long t1 = System.nanoTime();
+                    boolean same = scan.equal(cells, boards[0].cells());
+                    long t2 = System.nanoTime();
+                    if (round == WARMUP) {
+                        System.out.printf("%s, %s: over-full %.1f ms, "
+                                          + "equal %.1f ms%n",
+                                          board == boards[0] ? "heap"
+                                          : "off heap",
+                                          scan.getClass().getSimpleName(),
+                                          (t1 - start) * 1e-6,
+                                          (t2 - t1) * 1e-6);
+                    }
+                    assert over[0] == 0 && same;
+                }
+            }
+        }
+    }
+
+    /** Return COUNT positions, none of them over, on boards of size SIZE,
+     *  reached by random play from the start, using SEED to choose
+     *  the moves. */
+    static Board[] positions(int size, int count, long seed) {
+        Random random = new Random(seed);
+        Board[] result = new Board[count];
+        int area = size * size;
+        for (int k = 0; k < count; k += 1) {
+            Board board = new Board(size);
+            int moves = random.nextInt(2 * area);
+            for (int m = 0; m < moves; m += 1) {
+                Side player = board.whoseMove();
+                int n;
+                do {
+                    n = random.nextInt(area);
+                } while (!board.isLegal(player, n));
+                board.addSpot(player, n);
+                if (board.getWinner() != null) {
+                    board.undo();
+                    break;
+                }
+            }
+            result[k] = new Board(board);
+        }
+        return result;
+    }
+
+    /** Numbers of threads to compare. */
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+    /** Board sizes compared by playouts. */
+    private static final int[] PLAYOUT_SIZES = { 2, 4, 6, 8, 10 };
+    /** Number of random moves before each game of a match. */
+    private static final int OPENING_MOVES = 4;
+    /** The ways of playing out games measured by playouts. */
+    private static final String[] PLAYOUT_METHODS =
+        { "kernel", "board", "bitboard" };
+
+    /** Board sizes compared by moves. */
+    private static final int[] LARGE_SIZES = { 100, 200, 500, 1000, 2000 };
+
+    /** Rounds of scans run to warm up the JIT compiler before timing
+     *  them.  The vector API is slow until compiled. */
+    private static final int WARMUP = 20;
+
+    /** Seed for the random positions. */
+    private static final long SEED = 61;
+
+}
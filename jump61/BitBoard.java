@@ -0,0 +1,484 @@
+package jump61;
+
+import java.util.Arrays;
+
+import static jump61.Side.*;
+
+/** A Board of at most 8 x 8 squares kept as bit sets, one bit per square
+ *  (bit #N for square #N).  Ownership is two masks, one for each player;
+ *  the number of spots on each square is bit-sliced across four planes,
+ *  plane #K holding bit K of every square's count.  Every square on
+ *  a board holds between 1 and 8 spots, even partway through jumping,
+ *  so four planes are enough.
+ *
+ *  Jumping proceeds in waves rather than one square at a time: each
+ *  wave finds every over-full square with a few masked comparisons,
+ *  removes their spots, and spills them onto all of their neighbors at
+ *  once with four shifts and bit-sliced additions.  Because the final
+ *  position does not depend on the order in which over-full squares
+ *  topple, this ends in the same position as Board, except that a won
+ *  game may end with a different spread of spots.  Counting squares,
+ *  spots, and so on is a population count, so these are not kept
+ *  incrementally, and even the hash key is only brought up to date when
+ *  asked for.
+ *
+ *  Undo, redo, and unmakeMove restore whole saved positions, which are
+ *  only six words each.
+ *  @author Zeline Wang
+ */
+class BitBoard extends Board {
+
+    /** Largest size of a BitBoard. */
+    static final int MAX_SIZE = 8;
+
+    /** An N x N board in initial configuration.  N <= MAX_SIZE. */
+    BitBoard(int N) {
+        clear(N);
+    }
+
+    /** A board whose initial contents are copied from BOARD0, but whose
+     *  undo history is clear, and whose notifier does nothing.
+     *  BOARD0.size() <= MAX_SIZE. */
+    BitBoard(Board board0) {
+        copy(board0);
+    }
+
+    /** Return a copy of BOARD0 as a BitBoard if it is small enough, and
+     *  otherwise as a Board. */
+    static Board of(Board board0) {
+        if (board0.size() <= MAX_SIZE) {
+            return new BitBoard(board0);
+        }
+        return new Board(board0);
+    }
+
+    @Override
+    Board readonlyBoard() {
+        if (_readonly == null) {
+            _readonly = new ConstantBoard(this);
+        }
+        return _readonly;
+    }
+
+    @Override
+    void clear(int N) {
+        if (N > MAX_SIZE) {
+            throw new IllegalArgumentException("board too large");
+        }
+        _size = N;
+        _topo = Topology.of(N);
+        _all = N * N == Long.SIZE ? -1L : (1L << (N * N)) - 1;
+        _notFirstColumn = 0;
+        _corners = _edges = 0;
+        for (int n = 0; n < N * N; n += 1) {
+            if (n % N != 0) {
+                _notFirstColumn |= 1L << n;
+            }
+            switch (_topo.capacity(n)) {
+            case 2:
+                _corners |= 1L << n;
+                break;
+            case 3:
+                _edges |= 1L << n;
+                break;
+            default:
+                break;
+            }
+        }
+        _notLastColumn = _notFirstColumn >>> 1 & _all;
+        _interior = _all & ~_corners & ~_edges;
+        _red = _blue = 0;
+        _spots0 = _all;
+        _spots1 = _spots2 = _spots3 = 0;
+        _key = mix(N);
+        _keyedRed = _red;
+        _keyedBlue = _blue;
+        _keyed0 = _spots0;
+        _keyed1 = _keyed2 = _keyed3 = 0;
+        _depth = _current = _lastMove = 0;
+        setNotifier((b) -> { });
+        announce();
+    }
+
+    @Override
+    void copy(Board board) {
+        clear(board.size());
+        for (int n = 0; n < _size * _size; n += 1) {
+            Square sq = board.get(n);
+            internalSet(n, sq.getSpots(), sq.getSide());
+        }
+    }
+
+    @Override
+    int size() {
+        return _size;
+    }
+
+    @Override
+    Topology topology() {
+        return _topo;
+    }
+
+    @Override
+    Square get(int n) {
+        if (n >= 0 && n < _size * _size) {
+            return unpack(cell(n));
+        }
+        return null;
+    }
+
+    @Override
+    int numPieces() {
+        return countSpots(_all);
+    }
+
+    /** Return the hash key of the position, as for Board.hashKey.  It is
+     *  brought up to date only when asked for, from the squares changed
+     *  since it was last asked for, so that making moves does not pay
+     *  for hashing when it is not needed. */
+    @Override
+    long hashKey() {
+        long changed = (_red ^ _keyedRed) | (_blue ^ _keyedBlue)
+            | (_spots0 ^ _keyed0) | (_spots1 ^ _keyed1)
+            | (_spots2 ^ _keyed2) | (_spots3 ^ _keyed3);
+        while (changed != 0) {
+            int k = Long.numberOfTrailingZeros(changed);
+            changed &= changed - 1;
+            _key ^= zobrist(k, cell(k, _keyedRed, _keyedBlue, _keyed0,
+                                    _keyed1, _keyed2, _keyed3))
+                ^ zobrist(k, cell(k));
+        }
+        _keyedRed = _red;
+        _keyedBlue = _blue;
+        _keyed0 = _spots0;
+        _keyed1 = _spots1;
+        _keyed2 = _spots2;
+        _keyed3 = _spots3;
+        return _key;
+    }
+
+    @Override
+    boolean isLegal(Side player, int n) {
+        long theirs = player == RED ? _blue : player == BLUE ? _red : 0;
+        return (theirs >>> n & 1) == 0;
+    }
+
+    @Override
+    int numOfSide(Side side) {
+        return Long.bitCount(mask(side));
+    }
+
+    @Override
+    int spotsOfSide(Side side) {
+        return countSpots(mask(side));
+    }
+
+    @Override
+    int criticalOfSide(Side side) {
+        long one = ~_spots3 & ~_spots2;
+        long critical = (_corners & one & _spots1 & ~_spots0)
+            | (_edges & one & _spots1 & _spots0)
+            | (_interior & ~_spots3 & _spots2 & ~_spots1 & ~_spots0);
+        return Long.bitCount(critical & mask(side));
+    }
+
+    @Override
+    int rimOfSide(Side side) {
+        long mask = mask(side);
+        return 2 * Long.bitCount(_corners & mask)
+            + Long.bitCount(_edges & mask);
+    }
+
+    @Override
+    boolean isTerminal() {
+        return _red == _all || _blue == _all;
+    }
+
+    @Override
+    void addSpot(Side player, int r, int c) {
+        if (!exists(r, c) || !isLegal(player, r, c)) {
+            return;
+        }
+        makeMove(player, sqNum(r, c));
+        _current = _lastMove = _depth;
+        announce();
+    }
+
+    @Override
+    int makeMove(Side player, int n) {
+        _lastMove = _current;
+        int token = _depth;
+        save(token);
+        _depth += 1;
+        long bit = 1L << n;
+        addSpots(bit);
+        claim(player, bit);
+        if (!isTerminal()) {
+            jump(player);
+        }
+        return token;
+    }
+
+    /** Return a square chosen at random, using RANDOM, from those on
+     *  which PLAYER may legally move.  Requires that the game not be
+     *  over.  Tries one square chosen at random from the whole board, and
+     *  if it is not legal, picks a random member of the set of legal
+     *  squares. */
+    @Override
+    int randomMove(Side player, XorShift random) {
+        long legal = _all & ~(player == RED ? _blue : _red);
+        int n = random.nextInt(_size * _size);
+        if ((legal >>> n & 1) != 0) {
+            return n;
+        }
+        for (int k = random.nextInt(Long.bitCount(legal)); k > 0; k -= 1) {
+            legal &= legal - 1;
+        }
+        return Long.numberOfTrailingZeros(legal);
+    }
+
+    @Override
+    void unmakeMove(int token) {
+        restore(token);
+        _depth = token;
+    }
+
+    @Override
+    boolean isOverfull(int n) {
+        return (overfull() >>> n & 1) != 0;
+    }
+
+    @Override
+    void set(int n, int num, Side player) {
+        internalSet(n, num, player);
+        _lastMove = _current;
+        announce();
+    }
+
+    @Override
+    void set(int r, int c, int num, Side player) {
+        set(sqNum(r, c), num, player);
+    }
+
+    @Override
+    void undo() {
+        if (canUndo()) {
+            save(_current);
+            _current -= 1;
+            restore(_current);
+            _depth = _current;
+            announce();
+        }
+    }
+
+    @Override
+    void redo() {
+        if (canRedo()) {
+            _current += 1;
+            restore(_current);
+            _depth = _current;
+            announce();
+        }
+    }
+
+    @Override
+    boolean canUndo() {
+        return _current > 0;
+    }
+
+    @Override
+    boolean canRedo() {
+        return _current < _lastMove;
+    }
+
+    /** Do all jumping by PLAYER, whose spot has just been added, until no
+     *  square is over-full or PLAYER owns every square. */
+    private void jump(Side player) {
+        int N = _size;
+        for (long over = overfull(); over != 0; over = overfull()) {
+            long up = over >>> N, down = over << N & _all,
+                left = over >>> 1 & _notLastColumn,
+                right = over << 1 & _notFirstColumn;
+            removeSpots(over);
+            addSpots(up);
+            addSpots(down);
+            addSpots(left);
+            addSpots(right);
+            long spilled = up | down | left | right;
+            claim(player, spilled);
+            if (isTerminal()) {
+                break;
+            }
+        }
+    }
+
+    /** Return the set of over-full squares: those with more spots than
+     *  neighbors. */
+    private long overfull() {
+        long atLeast3 = _spots3 | _spots2 | (_spots1 & _spots0);
+        long atLeast4 = _spots3 | _spots2;
+        long atLeast5 = _spots3 | (_spots2 & (_spots1 | _spots0));
+        return (_corners & atLeast3) | (_edges & atLeast4)
+            | (_interior & atLeast5);
+    }
+
+    /** Add one spot to each square in SQUARES. */
+    private void addSpots(long squares) {
+        long carry = squares;
+        long t = _spots0 & carry;
+        _spots0 ^= carry;
+        carry = t;
+        t = _spots1 & carry;
+        _spots1 ^= carry;
+        carry = t;
+        t = _spots2 & carry;
+        _spots2 ^= carry;
+        _spots3 ^= t;
+    }
+
+    /** Remove from each square in SQUARES as many spots as it has
+     *  neighbors.  Assumes each has more spots than that. */
+    private void removeSpots(long squares) {
+        long v0 = squares & _edges, v1 = squares & (_corners | _edges),
+            v2 = squares & _interior;
+        long borrow = ~_spots0 & v0;
+        _spots0 ^= v0;
+        long b = (~_spots1 & (v1 | borrow)) | (v1 & borrow);
+        _spots1 ^= v1 ^ borrow;
+        borrow = b;
+        b = (~_spots2 & (v2 | borrow)) | (v2 & borrow);
+        _spots2 ^= v2 ^ borrow;
+        _spots3 ^= b;
+    }
+
+    /** Give PLAYER the squares in SQUARES. */
+    private void claim(Side player, long squares) {
+        if (player == RED) {
+            _red |= squares;
+            _blue &= ~squares;
+        } else {
+            _blue |= squares;
+            _red &= ~squares;
+        }
+    }
+
+    /** Set square #N to NUM spots of color PLAYER, as for Board.set,
+     *  without announcing the change. */
+    private void internalSet(int n, int num, Side player) {
+        byte v = pack(player, num);
+        long bit = 1L << n;
+        _red &= ~bit;
+        _blue &= ~bit;
+        if (side(v) == RED) {
+            _red |= bit;
+        } else if (side(v) == BLUE) {
+            _blue |= bit;
+        }
+        num = spots(v);
+        _spots0 = (_spots0 & ~bit) | ((num & 1) == 0 ? 0 : bit);
+        _spots1 = (_spots1 & ~bit) | ((num & 2) == 0 ? 0 : bit);
+        _spots2 = (_spots2 & ~bit) | ((num & 4) == 0 ? 0 : bit);
+        _spots3 = (_spots3 & ~bit) | ((num & 8) == 0 ? 0 : bit);
+    }
+
+    /** Return the squares of color SIDE. */
+    private long mask(Side side) {
+        switch (side) {
+        case RED:
+            return _red;
+        case BLUE:
+            return _blue;
+        default:
+            return _all & ~_red & ~_blue;
+        }
+    }
+
+    /** Return the total number of spots on SQUARES. */
+    private int countSpots(long squares) {
+        return Long.bitCount(_spots0 & squares)
+            + 2 * Long.bitCount(_spots1 & squares)
+            + 4 * Long.bitCount(_spots2 & squares)
+            + 8 * Long.bitCount(_spots3 & squares);
+    }
+
+    /** Return the packed value (see Board.pack) of square #N. */
+    private byte cell(int n) {
+        return cell(n, _red, _blue, _spots0, _spots1, _spots2, _spots3);
+    }
+
+    /** Return the packed value (see Board.pack) of square #N in the
+     *  position whose owner masks are RED and BLUE and whose spot planes
+     *  are S0 .. S3. */
+    private static byte cell(int n, long red, long blue,
+                             long s0, long s1, long s2, long s3) {
+        int num = (int) (s0 >>> n & 1) | (int) (s1 >>> n & 1) << 1
+            | (int) (s2 >>> n & 1) << 2 | (int) (s3 >>> n & 1) << 3;
+        Side side = (red >>> n & 1) != 0 ? RED
+            : (blue >>> n & 1) != 0 ? BLUE : WHITE;
+        return pack(side, num);
+    }
+
+    /** Save the current position as saved position #K. */
+    private void save(int k) {
+        int i = k * STATE_WORDS;
+        if (i + STATE_WORDS > _saved.length) {
+            _saved = Arrays.copyOf(_saved, 2 * _saved.length);
+        }
+        _saved[i] = _red;
+        _saved[i + 1] = _blue;
+        _saved[i + 2] = _spots0;
+        _saved[i + 3] = _spots1;
+        _saved[i + 4] = _spots2;
+        _saved[i + 5] = _spots3;
+    }
+
+    /** Make saved position #K the current position. */
+    private void restore(int k) {
+        int i = k * STATE_WORDS;
+        _red = _saved[i];
+        _blue = _saved[i + 1];
+        _spots0 = _saved[i + 2];
+        _spots1 = _saved[i + 3];
+        _spots2 = _saved[i + 4];
+        _spots3 = _saved[i + 5];
+    }
+
+    /** Number of words in a saved position. */
+    private static final int STATE_WORDS = 6;
+
+    /** Number of squares on a side. */
+    private int _size;
+    /** Layout of the board. */
+    private Topology _topo;
+    /** All squares on the board. */
+    private long _all;
+    /** The corner squares, the other edge squares, and the rest. */
+    private long _corners, _edges, _interior;
+    /** Squares not in the first column, and not in the last. */
+    private long _notFirstColumn, _notLastColumn;
+    /** Squares owned by each player. */
+    private long _red, _blue;
+    /** Bit planes of the number of spots on each square. */
+    private long _spots0, _spots1, _spots2, _spots3;
+    /** Zobrist hash, as for Board.hashKey, of the position whose owner
+     *  masks and spot planes are _keyedRed, _keyedBlue, and _keyed0 ..
+     *  _keyed3. */
+    private long _key;
+    /** The position whose hash is _key. */
+    private long _keyedRed, _keyedBlue, _keyed0, _keyed1, _keyed2, _keyed3;
+    /** Saved positions, STATE_WORDS words each.  Position #K, for K <
+     *  _depth, is that before the move that makeMove returned K for;
+     *  for K <= _current, it is that after the Kth move in the undo
+     *  history, and for K <= _lastMove, that is kept for redo. */
+    private long[] _saved = new long[16 * STATE_WORDS];
+    /** Number of positions saved by makeMove and not yet unmade. */
+    private int _depth;
+    /** Number of moves in the undo history before the current
+     *  position. */
+    private int _current;
+    /** Number of moves in the undo history, including undone ones that
+     *  may be redone. */
+    private int _lastMove;
+    /** A read-only view of me, created when first needed. */
+    private Board _readonly;
+}
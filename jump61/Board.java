@@ -1,8 +1,11 @@
 package jump61;
 
-import java.util.ArrayList;
-import java.util.ArrayDeque;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Formatter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.Consumer;
 
 import static jump61.Side.RED;
@@ -18,6 +21,11 @@ import static jump61.Square.square;
  *  A Board may be given a notifier---a Consumer<Board> whose
  *  .accept method is called whenever the Board's contents are changed.
  *
+ *  The contents are kept packed, one byte per square (see pack), so that
+ *  setting a square is a single array store and a whole default-sized
+ *  board fits in a cache line or two.  get still hands out the memoized
+ *  Square for each packed value.
+ *
  *  @author Zeline Wang
  */
 class Board {
@@ -30,35 +38,130 @@ class Board {
     /** An N x N board in initial configuration. */
     Board(int N) {
         this();
-        _size = N;
-        _table = new ArrayList<Square>();
-        _numSpots = N * N;
-        for (int i = 0; i < N * N; i++) {
-            _table.add(square(WHITE, 1));
-        }
-        _current = 0;
-        _history = new ArrayList<>();
-        _history.add(new GameState());
-        _history.get(0).saveState();
+        allocate(N);
+        _cells.fill(INITIAL_CELL);
+        recount();
+        setNotifier(NOP);
+    }
+
+    /** A board kept in CELLS, which, if FRESH, is set to the initial
+     *  configuration, and otherwise has the board's contents already. */
+    private Board(CellStore cells, boolean fresh) {
+        this();
+        _cells = cells;
+        allocate(cells.size());
+        if (fresh) {
+            _cells.fill(INITIAL_CELL);
+        }
+        recount();
         setNotifier(NOP);
     }
 
+    /** Return an N x N board in initial configuration whose squares are
+     *  kept off the heap. */
+    static Board offHeap(int N) {
+        return new Board(CellStore.offHeap(N), true);
+    }
+
+    /** Return an N x N board in initial configuration whose squares are
+     *  kept in FILE, mapped into memory, replacing any previous contents
+     *  of FILE.  Changes to the board go to FILE as the operating system
+     *  sees fit, and at once on checkpoint. */
+    static Board create(Path file, int N) throws IOException {
+        return new Board(CellStore.create(file, N), true);
+    }
+
+    /** Return the board kept in FILE by an earlier create, as it was when
+     *  last written.  If that was in the middle of a cascade (say, if
+     *  the program was stopped), finishes the cascade, which comes to the
+     *  same thing unless it ends the game.  Takes time proportional to
+     *  the number of squares to recount them, but reads them from FILE
+     *  only as the operating system pages them in.  The undo history is
+     *  clear. */
+    static Board open(Path file) throws IOException {
+        Board result = new Board(CellStore.open(file), false);
+        result.settle();
+        return result;
+    }
+
+    /** A frozen copy of BOARD whose squares are in CELLS, which must
+     *  hold the same squares as BOARD and not change.  It has no undo
+     *  history and cannot be changed: it is meant only to be wrapped in
+     *  a ConstantBoard.  Takes constant time. */
+    private Board(Board board, CellStore cells) {
+        this();
+        _size = board._size;
+        _topo = board._topo;
+        _cells = cells;
+        _numSpots = board._numSpots;
+        _key = board._key;
+        System.arraycopy(board._sideCounts, 0, _sideCounts, 0, SIDES.length);
+        System.arraycopy(board._sideSpots, 0, _sideSpots, 0, SIDES.length);
+        System.arraycopy(board._criticalCounts, 0, _criticalCounts, 0,
+                         SIDES.length);
+        System.arraycopy(board._rimWeights, 0, _rimWeights, 0,
+                         SIDES.length);
+    }
+
+    /** Return a read-only copy of my current position that my later
+     *  changes do not affect, for views and other readers that must
+     *  see a stable board.  The first call on a board kept on the heap
+     *  copies all its squares to a persistent CellStore, its shadow,
+     *  while it goes on keeping them in its array.  Later calls bring
+     *  the shadow up to date by copying only the 64-square blocks
+     *  changed since the last, so that their cost is proportional to
+     *  the number of changed blocks (times the log of the number of
+     *  squares), and the first call's is amortized over the snapshots
+     *  that follow.  Each snapshot shares with the shadow all the chunks
+     *  that have not changed since. */
+    Board snapshot() {
+        if (_cells == null) {
+            return new ConstantBoard(new Board(this));
+        }
+        if (!_cells.onHeap()) {
+            return new ConstantBoard(new Board(this, _cells.snapshot()));
+        }
+        if (_shadow == null) {
+            _shadow = CellStore.persistent(_cells);
+            _dirty = new long[(_cells.length() + (1 << 12) - 1) >> 12];
+            _dirtyWords = new IntList();
+        } else {
+            for (int i = 0; i < _dirtyWords.size(); i += 1) {
+                int w = _dirtyWords.get(i);
+                for (long bits = _dirty[w]; bits != 0; bits &= bits - 1) {
+                    int block = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    int start = block << 6;
+                    _shadow.copy(_cells, start,
+                                 Math.min(start + 64, _cells.length()));
+                }
+                _dirty[w] = 0;
+            }
+            _dirtyWords.clear();
+        }
+        return new ConstantBoard(new Board(this, _shadow.snapshot()));
+    }
+
+    /** Return the store holding my squares. */
+    CellStore cells() {
+        return _cells;
+    }
+
+    /** Write my contents to the file that holds them, if any, so that
+     *  open will find them as they are now, even after a crash. */
+    void checkpoint() {
+        _cells.force();
+    }
+
     /** A board whose initial contents are copied from BOARD0, but whose
      *  undo history is clear, and whose notifier does nothing. */
     Board(Board board0) {
         this();
-        _size = board0.size();
-        _table = new ArrayList<Square>();
-        _numSpots = 0;
-        for (int i = 0; i < size() * size(); i++) {
-            _table.add(square(board0.get(i).getSide(),
-                    board0.get(i).getSpots()));
-            _numSpots += board0.get(i).getSpots();
-        }
-        _current = 0;
-        _history = new ArrayList<>();
-        _history.add(new GameState());
-        _history.get(0).saveState();
+        allocate(board0.size());
+        for (int i = 0; i < _cells.length(); i++) {
+            Square sq = board0.get(i);
+            _cells.set(i, pack(sq.getSide(), sq.getSpots()));
+        }
+        recount();
         setNotifier(NOP);
         _readonlyBoard = new ConstantBoard(this);
     }
@@ -68,57 +171,49 @@ class Board {
         return _readonlyBoard;
     }
 
-    /**
-     * @return ind*/
-    public ArrayList<Square> getTable() {
-        return _table;
-    }
     /** (Re)initialize me to a cleared board with N squares on a side. Clears
      *  the undo history and sets the number of moves to
      *  0 (which is _numOfSpot = n*n).
      *  also make notifier do nothing */
     void clear(int N) {
-        _size = N;
-        _table = new ArrayList<Square>(N);
-        _numSpots = N * N;
-        for (int i = 0; i < N * N; i++) {
-            _table.add(square(WHITE, 1));
-        }
-        _current = 0;
-        _history = new ArrayList<>();
-        _history.add(new GameState());
-        _history.get(0).saveState();
+        allocate(N);
+        _cells.fill(INITIAL_CELL);
+        recount();
         setNotifier(NOP);
         announce();
     }
 
+    /** Set up storage for an N x N board with an empty undo history.
+     *  The contents are left for the caller to fill in.  Keeps my current
+     *  CellStore if it is already the right size. */
+    private void allocate(int N) {
+        _size = N;
+        _topo = Topology.of(N);
+        if (_cells == null || _cells.size() != N) {
+            _cells = CellStore.onHeap(N);
+        }
+        _queued = new long[(N * N + 63) >> 6];
+        _touched = new long[_queued.length];
+        _journalSize = 0;
+        _current = _lastMove = 0;
+        _stripes = null;
+        _shadow = null;
+        _dirty = null;
+        _dirtyWords = null;
+    }
+
     /** Copy the contents of BOARD into me.
      * everything but whose undo history is clear,
      * and whose notifier does nothing. (which is not announcing)
      * */
     void copy(Board board) {
         clear(board.size());
-        _numSpots = board._numSpots;
         _size = board.size();
         for (int i = 0; i < _size * _size; i++) {
             internalSet(i, board.get(i).getSpots(), board.get(i).getSide());
         }
     }
 
-    /** Copy the contents of BOARD into me, without modifying my undo
-     *  history.
-     *  Assumes BOARD and I have the same size.!!
-     *  */
-    private void internalCopy(Board board) {
-        assert size() == board.size();
-        copy(board);
-        _current = board._current;
-        _history = new ArrayList<>();
-        for (int i = 0; i <= _current; i++) {
-            _history.add(board._history.get(i));
-        }
-    }
-
     /** Return the number of rows and of columns of THIS. */
     int size() {
         return _size;
@@ -134,26 +229,16 @@ class Board {
      *  squares in row 1 number 0 - size()-1, in row 2 numbered
      *  size() - 2*size() - 1, etc. */
     Square get(int n) {
-        if (_table.isEmpty()) {
-            return null;
-        }
-        if (n >= 0 && n < _size * _size) {
-            return _table.get(n);
+        if (n >= 0 && n < _cells.length()) {
+            return SQUARES[_cells.get(n)];
         }
         return null;
     }
 
-    /** Returns the total number of spots on the board.
-     *  Use updating board as reference cause there are
-     *  no updating functions in set()
-     *  numOfSpots don't get changed sometimes
-     *  */
+    /** Returns the total number of spots on the board.  This is kept
+     *  up to date by internalSet, so costs nothing. */
     int numPieces() {
-        int spotsSum = 0;
-        for (int i = 0; i < size() * size(); i++) {
-            spotsSum += _table.get(i).getSpots();
-        }
-        return spotsSum;
+        return _numSpots;
     }
 
     /** Returns the Side of the player who would be next to move.  If the
@@ -162,6 +247,74 @@ class Board {
         return ((numPieces() + size()) & 1) == 0 ? RED : BLUE;
     }
 
+    /** Recompute the spot total, the per-side counts, and the hash key
+     *  from scratch.  Used only when the contents are replaced
+     *  wholesale. */
+    private void recount() {
+        _numSpots = 0;
+        Arrays.fill(_sideCounts, 0);
+        Arrays.fill(_sideSpots, 0);
+        Arrays.fill(_criticalCounts, 0);
+        Arrays.fill(_rimWeights, 0);
+        _key = mix(_size);
+        for (int n = 0; n < _cells.length(); n += 1) {
+            byte v = _cells.get(n);
+            tally(n, v);
+            _key ^= zobrist(n, v);
+        }
+    }
+
+    /** Add the contribution of packed value V on square #N to the spot
+     *  total and the per-side counts. */
+    private void tally(int n, byte v) {
+        int side = v & SIDE_MASK, num = spots(v), cap = _topo.capacity(n);
+        _numSpots += num;
+        _sideCounts[side] += 1;
+        _sideSpots[side] += num;
+        if (num == cap) {
+            _criticalCounts[side] += 1;
+        }
+        _rimWeights[side] += MAX_CAPACITY - cap;
+    }
+
+    /** Return a 64-bit hash of the current position, maintained
+     *  incrementally (Zobrist hashing) as squares change.  Equal positions
+     *  on boards of the same size always have equal keys. */
+    long hashKey() {
+        return _key;
+    }
+
+    /** Return the contribution to the hash key of square #N holding
+     *  packed value V.  Initial squares contribute nothing.  The values
+     *  come from a fixed mixing function rather than a random table, so
+     *  keys are reproducible and need no storage for any board size;
+     *  those for the squares of ordinary boards are also tabulated, as
+     *  computing them would be a large part of the cost of a move. */
+    static long zobrist(int n, byte v) {
+        if (n < ZOBRIST_SQUARES) {
+            return ZOBRIST[n * SQUARES.length + v];
+        }
+        return zobristValue(n, v);
+    }
+
+    /** Return the contribution to the hash key of square #N holding
+     *  packed value V, as for zobrist, without using the table. */
+    private static long zobristValue(int n, byte v) {
+        if (v == INITIAL_CELL) {
+            return 0;
+        }
+        return mix(((long) n << CELL_BITS) | (v & CELL_MASK));
+    }
+
+    /** Return a well-scrambled 64-bit function of X (the SplitMix64
+     *  finalizer). */
+    static long mix(long x) {
+        long z = (x + 1) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
     /** Return true iff row R and column C denotes a valid square. */
     final boolean exists(int r, int c) {
         return 1 <= r && r <= size() && 1 <= c && c <= size();
@@ -218,10 +371,6 @@ class Board {
     /** Returns the winner of the current position, if the game is over,
      *  and otherwise null. */
     final Side getWinner() {
-        if (_table == null) {
-            System.err.printf("Null table");
-            return null;
-        }
         if (numOfBlue() == size() * size()) {
             return BLUE;
         } else if (numOfRed() == size() * size()) {
@@ -233,13 +382,32 @@ class Board {
 
     /** Return the number of squares of given SIDE. */
     int numOfSide(Side side) {
-        int num = 0;
-        for (int i = 0; i < _size * _size; i++) {
-            if (get(i).getSide() == side) {
-                num++;
-            }
-        }
-        return num;
+        return _sideCounts[side.ordinal()];
+    }
+
+    /** Return the total number of spots on squares of given SIDE. */
+    int spotsOfSide(Side side) {
+        return _sideSpots[side.ordinal()];
+    }
+
+    /** Return the number of critical squares of given SIDE: those
+     *  holding as many spots as they have neighbors, which the next spot
+     *  will topple. */
+    int criticalOfSide(Side side) {
+        return _criticalCounts[side.ordinal()];
+    }
+
+    /** Return the rim weight of given SIDE: 2 for each corner square and
+     *  1 for each other edge square of that color.  Such squares need
+     *  fewer spots to topple. */
+    int rimOfSide(Side side) {
+        return _rimWeights[side.ordinal()];
+    }
+
+    /** Return true iff the game is over (one side owns every square).
+     *  Constant time, so callers may use it freely. */
+    boolean isTerminal() {
+        return getWinner() != null;
     }
     /** Add a spot from PLAYER at row R, column C.  Assumes
      *  isLegal(PLAYER, R, C).
@@ -263,22 +431,73 @@ class Board {
         if (!isLegal(player, r, c)) {
             return;
         }
-        set(r, c, get(r, c).getSpots() + 1, player);
-        _numSpots++;
-        if (ifWin()) {
-            return;
+        if (journaled()) {
+            makeMove(player, sqNum(r, c));
+            markUndo();
+        } else {
+            play(player, sqNum(r, c));
         }
-        if (isOverfull(r, c)) {
-            jump(sqNum(r, c));
+        announce();
+    }
+
+    /** Add a spot from PLAYER at square #N, doing all jumping, but
+     *  without adding to the undo history or announcing the change.
+     *  Returns a token for unmakeMove, which restores exactly the position
+     *  before the move.  Assumes isLegal(PLAYER, N).  Moves made this way
+     *  must be unmade, in reverse order, before any other change to the
+     *  board.  Intended for searches, which need no allocation per move. */
+    int makeMove(Side player, int n) {
+        int token = beginChanges();
+        play(player, n);
+        endChanges(token);
+        return token;
+    }
+
+    /** Add a spot from PLAYER at square #N, doing all jumping, as for
+     *  makeMove, but recording nothing, so that a move on a board that
+     *  is not journaled costs no memory however many squares it
+     *  changes. */
+    private void play(Side player, int n) {
+        _lastMove = _current;
+        simpleAdd(player, n, 1);
+        if (!isTerminal()) {
+            jump(n);
         }
-        markUndo();
     }
-    /** if the square.
-     * @return rine*/
-    public boolean ifWin() {
-        return getWinner() != null;
+
+    /** Return a square chosen at random, using RANDOM, from those on
+     *  which PLAYER may legally move.  Requires that the game not be
+     *  over.  Tries a few squares chosen at random from the whole board,
+     *  and if none is legal, counts its way to a randomly chosen one of
+     *  the legal squares (whose number is known from the counts of each
+     *  side's squares), so that no list of moves is needed. */
+    int randomMove(Side player, XorShift random) {
+        int area = _size * _size;
+        for (int k = 0; k < RANDOM_TRIES; k += 1) {
+            int n = random.nextInt(area);
+            if (isLegal(player, n)) {
+                return n;
+            }
+        }
+        int skip = random.nextInt(area - numOfSide(player.opposite()));
+        for (int n = 0; true; n += 1) {
+            if (isLegal(player, n)) {
+                if (skip == 0) {
+                    return n;
+                }
+                skip -= 1;
+            }
+        }
     }
 
+    /** Take back the moves made by makeMove since it returned TOKEN. */
+    void unmakeMove(int token) {
+        for (int k = _journalSize - 1; k >= token; k -= 1) {
+            long entry = _journal[k];
+            store(entryIndex(entry), entryBefore(entry));
+        }
+        _journalSize = token;
+    }
     /** Add a spot from PLAYER at square #N.  Assumes isLegal(PLAYER, N). */
     void addSpot(Side player, int n) {
         addSpot(player, row(n), col(n));
@@ -301,7 +520,7 @@ class Board {
      * @param n in
      * @return in */
     boolean isOverfull(int n) {
-        return get(n).getSpots() > neighbors(n);
+        return spots(_cells.get(n)) > _topo.capacity(n);
     }
 
     /** if the square is overfull.
@@ -309,22 +528,30 @@ class Board {
      * @param c int
      * @return inte*/
     boolean isOverfull(int r, int c) {
-        return get(r, c).getSpots() > neighbors(r, c);
+        return isOverfull(sqNum(r, c));
     }
 
     /** Set the square at row R, column C to NUM spots (0 <= NUM), and give
      *  it color PLAYER if NUM > 0 (otherwise, white). */
     void set(int r, int c, int num, Side player) {
-        internalSet(r, c, num, player);
-        announce();
+        set(sqNum(r, c), num, player);
     }
     /** Set the square at row R, column C to NUM spots (0 <= NUM), and give
-     *  it color PLAYER if NUM > 0 (otherwise, white).
+     *  it color PLAYER if NUM > 0 (otherwise, white).  The change becomes
+     *  part of the last move, so that undoing that move undoes it too.
      *  @param n int
      *  @param num int
      *  @param player side*/
     void set(int n, int num, Side player) {
-        internalSet(n, num, player);
+        if (journaled() && _current > 0) {
+            int token = beginChanges();
+            internalSet(n, num, player);
+            endChanges(token);
+            _moveStarts[_current] = _journalSize;
+        } else {
+            internalSet(n, num, player);
+        }
+        _lastMove = _current;
         announce();
     }
 
@@ -338,30 +565,77 @@ class Board {
     /** Set the square #N to NUM spots (0 <= NUM), and give it color PLAYER
      *  if NUM > 0 (otherwise, white). Does not announce changes. */
     private void internalSet(int n, int num, Side player) {
-        if (num == 0) {
-            _table.remove(n);
-            _table.add(n, square(WHITE, num));
-        } else if (num > 0) {
-            _table.remove(n);
-            _table.add(n, square(player, num));
+        if (num >= 0) {
+            if (_recording && (_touched[n >>> 6] & (1L << n)) == 0) {
+                _touched[n >>> 6] |= 1L << n;
+                record(n);
+            }
+            store(n, pack(player, num));
         }
     }
 
-    /** Undo the effects of one move (that is, one addSpot command).  One
-     *  can only undo back to the last point at which the undo history
-     *  was cleared, or the construction of this Board. */
-    void undo() {
-        if (_current > 0) {
-            _current -= 1;
-            _history.get(_current).restoreState();
+    /** Mark block #BLOCK (squares #64BLOCK to #64BLOCK+63) as changed
+     *  since the last snapshot. */
+    private void markBlock(int block) {
+        int w = block >>> 6;
+        if (_dirty[w] == 0) {
+            _dirtyWords.add(w);
         }
+        _dirty[w] |= 1L << block;
     }
 
-    /** Record the beginning of a move in the undo history. */
-    private void markUndo() {
-        _history.add(new GameState());
-        _current++;
-        _history.get(_current).saveState();
+    /** Set square #N to packed value V, keeping the spot total, the
+     *  per-side counts, and the hash key up to date.  Does not record or
+     *  announce the change. */
+    private void store(int n, byte v) {
+        byte old = _cells.get(n);
+        _cells.set(n, v);
+        if (_dirty != null) {
+            markBlock(n >>> 6);
+        }
+        _key ^= zobrist(n, old) ^ zobrist(n, v);
+        int oldSide = old & SIDE_MASK, side = v & SIDE_MASK;
+        int oldNum = spots(old), num = spots(v), cap = _topo.capacity(n);
+        _numSpots += num - oldNum;
+        _sideSpots[oldSide] -= oldNum;
+        _sideSpots[side] += num;
+        if (oldSide != side) {
+            _sideCounts[oldSide] -= 1;
+            _sideCounts[side] += 1;
+            _rimWeights[oldSide] -= MAX_CAPACITY - cap;
+            _rimWeights[side] += MAX_CAPACITY - cap;
+        }
+        if (oldNum == cap) {
+            _criticalCounts[oldSide] -= 1;
+        }
+        if (num == cap) {
+            _criticalCounts[side] += 1;
+        }
+    }
+
+    /** Return the packed cell value for a square with NUM spots of color
+     *  PLAYER.  As for Square.square, a square with no spots or of color
+     *  WHITE is the initial square (one white spot). */
+    static byte pack(Side player, int num) {
+        if (num == 0 || player == WHITE) {
+            return INITIAL_CELL;
+        }
+        return (byte) ((num << SIDE_BITS) | player.ordinal());
+    }
+
+    /** Return the Square for packed cell value V. */
+    static Square unpack(byte v) {
+        return SQUARES[v];
+    }
+
+    /** Return the number of spots in packed cell value V. */
+    static int spots(byte v) {
+        return v >> SIDE_BITS;
+    }
+
+    /** Return the color of packed cell value V. */
+    static Side side(byte v) {
+        return SIDES[v & SIDE_MASK];
     }
 
     /** Add DELTASPOTS spots of side PLAYER to row R, column C,
@@ -376,114 +650,611 @@ class Board {
         internalSet(n, deltaSpots + get(n).getSpots(), player);
     }
 
-/************************************************************************/
-    private class GameState extends Board {
+    /** Undo the effects of one move (that is, one addSpot command).  One
+     *  can only undo back to the last point at which the undo history
+     *  was cleared, or the construction of this Board.  Costs time
+     *  proportional to the number of squares the move changed. */
+    void undo() {
+        if (canUndo()) {
+            unmakeMove(_moveStarts[_current - 1]);
+            _current -= 1;
+            announce();
+        }
+    }
 
-        /** A holder for the _cells and _active instance variables of this
-         *  Model. */
-        GameState() {
-            _savedTable = new ArrayList<Square>();
+    /** Redo the most recently undone move, if there is one and the board
+     *  has not been changed since. */
+    void redo() {
+        if (canRedo()) {
+            int end = _moveStarts[_current + 1];
+            for (int k = _moveStarts[_current]; k < end; k += 1) {
+                long entry = _journal[k];
+                store(entryIndex(entry), entryAfter(entry));
+            }
+            _journalSize = end;
+            _current += 1;
+            announce();
         }
+    }
 
-        /** Initialize to the current state of the Model. */
-        void saveState() {
-            _savedTable.clear();
-            _savedTable.addAll(_table);
+    /** Return true iff moves made by addSpot are kept for undo.  They
+     *  are not on boards larger than Defaults.MAX_BOARD_SIZE, where a
+     *  single cascade may change millions of squares. */
+    boolean journaled() {
+        return _size <= Defaults.MAX_BOARD_SIZE;
+    }
+
+    /** Return true iff there is a move that undo would take back. */
+    boolean canUndo() {
+        return _current > 0;
+    }
+
+    /** Return true iff there is an undone move that redo would replay. */
+    boolean canRedo() {
+        return _current < _lastMove;
+    }
+
+    /** Record the end of a move, whose changes are the journal entries
+     *  since the end of the previous one, in the undo history. */
+    private void markUndo() {
+        if (_current + 1 >= _moveStarts.length) {
+            _moveStarts = Arrays.copyOf(_moveStarts, 2 * _moveStarts.length);
         }
+        _current += 1;
+        _lastMove = _current;
+        _moveStarts[_current] = _journalSize;
+    }
+
+    /** Start recording changes to squares in the journal, returning the
+     *  position of the first entry to be recorded.  Each changed square is
+     *  recorded once, with its value from before the change. */
+    private int beginChanges() {
+        _recording = true;
+        return _journalSize;
+    }
 
-        /** Restore the current Model's state from our saved state. */
-        void restoreState() {
-            _table.clear();
-            _table.addAll(_savedTable);
+    /** Stop recording changes, filling in the final values of the squares
+     *  recorded since journal position START. */
+    private void endChanges(int start) {
+        for (int k = start; k < _journalSize; k += 1) {
+            int n = entryIndex(_journal[k]);
+            _journal[k] |= _cells.get(n) & CELL_MASK;
+            _touched[n >>> 6] &= ~(1L << n);
         }
+        _recording = false;
+    }
 
-        /** Contents of board. */
-        private ArrayList<Square> _savedTable;
+    /** Append a journal entry for square #N, recording its current
+     *  value. */
+    private void record(int n) {
+        if (_journalSize == _journal.length) {
+            _journal = Arrays.copyOf(_journal, 2 * _journal.length);
+        }
+        _journal[_journalSize] = entry(n, _cells.get(n));
+        _journalSize += 1;
     }
 
-    /** A sequence of puzzle states.
-     * add GAMESTATE after a player's move, which is after addSpot.
-     * Save the statues of the BOARD, which is the _table.
-     * */
-    private ArrayList<GameState> _history = new ArrayList<GameState>();
+    /** Return a journal entry for square #N, recording its value before
+     *  the change as OLD. */
+    private static long entry(int n, byte old) {
+        return ((long) n << (2 * CELL_BITS))
+            | ((old & CELL_MASK) << CELL_BITS);
+    }
 
-    /** The position of the current state in _history.  This is always
-     *  non-negative and <=_lastHistory.
-     *  from 0 to ...
-     *  */
-    private int _current;
+    /** Return the square number recorded in journal ENTRY. */
+    private static int entryIndex(long entry) {
+        return (int) (entry >>> (2 * CELL_BITS));
+    }
 
-/**********************************************************************
- *
- * @return arraryd
- * **/
-    public ArrayList<GameState> getHistory() {
-        return _history;
+    /** Return the value of the square in journal ENTRY before the
+     *  change. */
+    private static byte entryBefore(long entry) {
+        return (byte) (entry >>> CELL_BITS);
+    }
+
+    /** Return the value of the square in journal ENTRY after the
+     *  change. */
+    private static byte entryAfter(long entry) {
+        return (byte) entry;
     }
 
-    /** Used in jump to keep track of squares needing processing.  Allocated
-     *  here to cut down on allocations. */
-    private final ArrayDeque<Integer> _workQueue = new ArrayDeque<>();
+    /** The undo journal: one entry for each square changed by a move,
+     *  in the order the moves were made, packing the square number with
+     *  that square's values before and after the move.  Entries for undone
+     *  moves stay past _journalSize until overwritten, for redo. */
+    private long[] _journal = new long[INITIAL_JOURNAL_SIZE];
+
+    /** Number of entries in _journal belonging to moves not undone. */
+    private int _journalSize;
+
+    /** _moveStarts[K] is the position in _journal of the first entry of
+     *  move #K (from 0), and therefore of the end of move #K-1. */
+    private int[] _moveStarts = new int[INITIAL_JOURNAL_SIZE];
+
+    /** Number of moves made and not undone. */
+    private int _current;
+
+    /** Number of moves that are either made or available for redo. */
+    private int _lastMove;
+
+    /** True iff changes to squares are being recorded in the journal. */
+    private boolean _recording;
+
+    /** Bit set of the squares already recorded in the journal for the
+     *  move in progress. */
+    private long[] _touched;
 
     /** Do all jumping on this board, assuming that initially, S is the only
-     *  square that might be over-full. */
+     *  square that might be over-full.  Works from a queue of over-full
+     *  squares: toppling a square can only make its own neighbors (or
+     *  itself) over-full, so only those are examined afterwards, and the
+     *  work done is proportional to the number of topples.  Stops as soon
+     *  as one side owns every square. */
     private void jump(int S) {
-        if (isOverfull(S)) {
-            move(S);
+        if (!isOverfull(S)) {
+            return;
+        }
+        enqueue(S);
+        cascade(side(_cells.get(S)));
+    }
+
+    /** Topple the squares in the work queue, all of color PLAYER, and
+     *  those they make over-full in turn, until none are left or one
+     *  side owns every square, leaving the queue empty.  On boards of at
+     *  least PARALLEL_SIZE squares on a side, whenever PARALLEL_FRONTIER
+     *  squares are waiting, topples in parallel waves instead (see waves)
+     *  until few are left. */
+    private void cascade(Side player) {
+        boolean parallel = _size >= PARALLEL_SIZE && cascadeThreads() > 1;
+        while (_queueSize > 0 && !isTerminal()) {
+            if (parallel && _queueSize >= PARALLEL_FRONTIER) {
+                waves(player);
+            } else {
+                topple(dequeue());
+            }
         }
-        updateWorkQueue();
-        if (ifWin()) {
-            _workQueue.clear();
+        while (_queueSize > 0) {
+            dequeue();
         }
-        if (_workQueue.isEmpty()) {
-            return;
+    }
+
+    /** Topple every over-full square, as a cascade that was cut short
+     *  would leave them, unless the game is over.  Finds them with a scan
+     *  of the whole board (see CellScan). */
+    private void settle() {
+        CellScan.get().overfull(_cells, this::enqueue);
+        if (_queueSize > 0) {
+            cascade(side(_cells.get(_queue[_queueHead])));
+        }
+    }
+
+    /** Move spots from over-full square #N to each of its neighbors,
+     *  giving them N's color, and queue any square that becomes (or
+     *  remains) over-full. */
+    private void topple(int n) {
+        Topology topo = _topo;
+        Side player = side(_cells.get(n));
+        simpleAdd(player, n, -topo.capacity(n));
+        if (topo.tabulated()) {
+            for (int k = topo.firstNeighbor(n),
+                     end = topo.firstNeighbor(n + 1);
+                 k < end; k += 1) {
+                spill(player, topo.neighbor(k));
+            }
         } else {
-            jump(_workQueue.pollFirst());
+            int N = _size, c = n % N;
+            if (n >= N) {
+                spill(player, n - N);
+            }
+            if (n < _cells.length() - N) {
+                spill(player, n + N);
+            }
+            if (c > 0) {
+                spill(player, n - 1);
+            }
+            if (c < N - 1) {
+                spill(player, n + 1);
+            }
+        }
+        if (isOverfull(n)) {
+            enqueue(n);
+        }
+    }
+
+    /** Add one spot of color PLAYER to square #N, a neighbor of a square
+     *  being toppled, queueing it if that makes it over-full. */
+    private void spill(Side player, int n) {
+        simpleAdd(player, n, 1);
+        if (!isQueued(n) && isOverfull(n)) {
+            enqueue(n);
         }
     }
 
-    /** Update what is in the Queue of Jumping process. */
-    private void updateWorkQueue() {
-        for (int i = 0; i < size() * size(); i++) {
-            if (isOverfull(i) && !_workQueue.contains(i)) {
-                _workQueue.add(i);
+    /** Return true iff square #N is currently in the work queue. */
+    private boolean isQueued(int n) {
+        return (_queued[n >>> 6] & (1L << n)) != 0;
+    }
+
+    /** Add square #N to the end of the work queue. */
+    private void enqueue(int n) {
+        if (_queueSize == _queue.length) {
+            int[] bigger = new int[2 * _queue.length];
+            for (int i = 0; i < _queueSize; i += 1) {
+                bigger[i] = _queue[(_queueHead + i) & (_queue.length - 1)];
             }
+            _queue = bigger;
+            _queueHead = 0;
         }
+        _queue[(_queueHead + _queueSize) & (_queue.length - 1)] = n;
+        _queueSize += 1;
+        _queued[n >>> 6] |= 1L << n;
     }
 
-    /** if one square is overfull, then move the spots to neighbors.
-     *  same as addSpot() but not changing _numSpot and _turn, and whoseMove
-     *  does nothing if r,c is not a square or the r,c is not overfull
-     * @param n int
-     *  */
-    void move(int n) {
-        move(row(n), col(n));
-    }
-    /** if one square is overfull, then move the spots to neighbors.
-     *  same as addSpot() but not changing _numSpot and _turn, and whoseMove
-     *  does nothing if r,c is not a square or the r,c is not overfull
-     *  @param r int
-     *  @param c int
-     *  */
-    void move(int r, int c) {
-        if (isSquare(r, c)) {
-            Side player = get(r, c).getSide();
-            if (isOverfull(r, c)) {
-                set(r, c, get(r, c).getSpots() - neighbors(r, c), player);
-                if (isSquare(r - 1, c)) {
-                    set(r - 1, c, get(r - 1, c).getSpots() + 1, player);
+    /** Remove and return the square at the front of the work queue. */
+    private int dequeue() {
+        int n = _queue[_queueHead];
+        _queueHead = (_queueHead + 1) & (_queue.length - 1);
+        _queueSize -= 1;
+        _queued[n >>> 6] &= ~(1L << n);
+        return n;
+    }
+
+    /** Ring buffer of squares waiting to be toppled by jump.  Its length
+     *  is always a power of two; it grows as needed and is kept between
+     *  moves to cut down on allocations. */
+    private int[] _queue = new int[INITIAL_QUEUE_SIZE];
+
+    /** Index in _queue of the first queued square. */
+    private int _queueHead;
+
+    /** Number of squares in _queue. */
+    private int _queueSize;
+
+    /** Bit set of the squares in _queue (bit N%64 of word N/64 for square
+     *  #N), so that no square is queued twice.  During waves, marks the
+     *  squares each Stripe has changed in the current wave. */
+    private long[] _queued;
+
+    /** Set the number of threads that cascades on boards of at least
+     *  PARALLEL_SIZE squares on a side use to THREADS.  With one, all
+     *  cascades are sequential.  Affects only the time cascades take:
+     *  their results are the same either way. */
+    static synchronized void setCascadeThreads(int threads) {
+        if (threads != _cascadeThreads) {
+            if (_cascadePool != null) {
+                _cascadePool.shutdown();
+            }
+            _cascadePool = threads > 1 ? new ForkJoinPool(threads) : null;
+            _cascadeThreads = threads;
+        }
+    }
+
+    /** Return the number of threads used by parallel cascades. */
+    static synchronized int cascadeThreads() {
+        return _cascadeThreads;
+    }
+
+    /** Topple the squares in the work queue, all of color PLAYER, in
+     *  synchronous waves: in each, every over-full square gives one spot
+     *  to each neighbor at once, as if all toppled simultaneously.  Since
+     *  the result of a cascade does not depend on the order of topples,
+     *  this comes to the same thing as toppling one square at a time,
+     *  unless a side wins first, in which case the cascade stops at the
+     *  end of the wave that makes it win.  The board is divided into
+     *  Stripes of consecutive squares, which topple their own squares
+     *  in parallel and then exchange the spots they spilled onto their
+     *  neighbors' squares.  Returns, with the squares still over-full back
+     *  in the queue, once fewer than PARALLEL_FRONTIER / 4 remain.  My
+     *  store is never a persistent one (snapshot keeps that in _shadow),
+     *  whose copying of chunks as they change is not safe for several
+     *  threads at once. */
+    private void waves(Side player) {
+        assert !_cells.persistent();
+        Stripe[] stripes = stripes();
+        int length = stripes[0]._hi;
+        while (_queueSize > 0) {
+            int n = dequeue();
+            stripes[n / length]._frontier.add(n);
+        }
+        ForkJoinPool pool;
+        synchronized (Board.class) {
+            pool = _cascadePool;
+        }
+        int waiting;
+        do {
+            pool.invoke(new Phase(stripes, player, true));
+            pool.invoke(new Phase(stripes, player, false));
+            waiting = 0;
+            for (Stripe stripe : stripes) {
+                stripe.merge();
+                waiting += stripe._frontier.size();
+            }
+        } while (waiting >= PARALLEL_FRONTIER / 4 && !isTerminal());
+        for (Stripe stripe : stripes) {
+            for (int i = 0; i < stripe._frontier.size(); i += 1) {
+                enqueue(stripe._frontier.get(i));
+            }
+            stripe._frontier.clear();
+        }
+    }
+
+    /** Return the Stripes into which waves divides this board, creating
+     *  them if needed.  Each covers a whole number of 64-square words of
+     *  the bit sets _queued and _touched, and at least a whole row, so
+     *  that neighbors of its squares lie in it or the Stripes on either
+     *  side, and no two Stripes share a word. */
+    private Stripe[] stripes() {
+        if (_stripes == null) {
+            int area = _cells.length();
+            int count = cascadeThreads() * STRIPES_PER_THREAD;
+            int length = Math.max((area + count - 1) / count, _size);
+            length = (length + 63) & ~63;
+            count = (area + length - 1) / length;
+            _stripes = new Stripe[count];
+            for (int k = 0; k < count; k += 1) {
+                _stripes[k] = new Stripe(k * length,
+                                         Math.min(area, (k + 1) * length));
+            }
+            for (int k = 0; k < count; k += 1) {
+                _stripes[k]._prev = k == 0 ? null : _stripes[k - 1];
+                _stripes[k]._next = k == count - 1 ? null : _stripes[k + 1];
+            }
+        }
+        return _stripes;
+    }
+
+    /** One half of a wave: all Stripes toppling their over-full squares,
+     *  or all Stripes gathering the spots they were given. */
+    private static class Phase extends RecursiveAction {
+
+        /** A phase over STRIPES for a cascade by PLAYER, toppling if
+         *  TOPPLE, and otherwise gathering. */
+        Phase(Stripe[] stripes, Side player, boolean topple) {
+            _stripes = stripes;
+            _player = player;
+            _topple = topple;
+        }
+
+        @Override
+        protected void compute() {
+            RecursiveAction[] parts = new RecursiveAction[_stripes.length];
+            for (int k = 0; k < parts.length; k += 1) {
+                final Stripe stripe = _stripes[k];
+                parts[k] = new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        if (_topple) {
+                            stripe.topple(_player);
+                        } else {
+                            stripe.gather(_player);
+                        }
+                    }
+                };
+            }
+            invokeAll(parts);
+        }
+
+        /** The Stripes involved. */
+        private final Stripe[] _stripes;
+        /** The side making the cascade. */
+        private final Side _player;
+        /** True iff toppling. */
+        private final boolean _topple;
+    }
+
+    /** The squares from _lo to _hi - 1, as toppled by one thread during
+     *  waves.  A Stripe changes only its own squares, and keeps its own
+     *  account of the changes to my counts, hash key, and journal, which
+     *  merge adds to mine between waves. */
+    private class Stripe {
+
+        /** The Stripe of squares LO to HI - 1. */
+        Stripe(int lo, int hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        /** Topple each square in my frontier once, for PLAYER, passing
+         *  the spots they spill onto other Stripes to _toPrev and
+         *  _toNext. */
+        void topple(Side player) {
+            _toPrev.clear();
+            _toNext.clear();
+            int N = _size;
+            for (int i = 0; i < _frontier.size(); i += 1) {
+                int n = _frontier.get(i), c = n % N;
+                add(player, n, -_topo.capacity(n));
+                if (n >= N) {
+                    spill(player, n - N);
                 }
-                if (isSquare(r + 1, c)) {
-                    set(r + 1, c, get(r + 1, c).getSpots() + 1, player);
+                if (n < _cells.length() - N) {
+                    spill(player, n + N);
                 }
-                if (isSquare(r, c - 1)) {
-                    set(r, c - 1, get(r, c - 1).getSpots() + 1, player);
+                if (c > 0) {
+                    spill(player, n - 1);
                 }
-                if (isSquare(r, c + 1)) {
-                    set(r, c + 1, get(r, c + 1).getSpots() + 1, player);
+                if (c < N - 1) {
+                    spill(player, n + 1);
                 }
             }
+            _frontier.clear();
         }
+
+        /** Add the spots of PLAYER spilled onto my squares by the Stripes
+         *  on either side, and make my frontier the squares of mine left
+         *  over-full by this wave. */
+        void gather(Side player) {
+            if (_prev != null) {
+                for (int i = 0; i < _prev._toNext.size(); i += 1) {
+                    add(player, _prev._toNext.get(i), 1);
+                }
+            }
+            if (_next != null) {
+                for (int i = 0; i < _next._toPrev.size(); i += 1) {
+                    add(player, _next._toPrev.get(i), 1);
+                }
+            }
+            for (int i = 0; i < _changed.size(); i += 1) {
+                int n = _changed.get(i);
+                _queued[n >>> 6] &= ~(1L << n);
+                if (spots(_cells.get(n)) > _topo.capacity(n)) {
+                    _frontier.add(n);
+                }
+            }
+            _changed.clear();
+        }
+
+        /** Give one spot of PLAYER to square #N, a neighbor of a toppled
+         *  square, or pass it on to the Stripe that holds #N. */
+        private void spill(Side player, int n) {
+            if (n < _lo) {
+                _toPrev.add(n);
+            } else if (n >= _hi) {
+                _toNext.add(n);
+            } else {
+                add(player, n, 1);
+            }
+        }
+
+        /** Add DELTA spots of PLAYER to my square #N, accounting for the
+         *  change as store would. */
+        private void add(Side player, int n, int delta) {
+            byte old = _cells.get(n);
+            byte v = pack(player, spots(old) + delta);
+            _cells.set(n, v);
+            int block = n >>> 6;
+            if (_dirty != null && (_dirty[block >>> 6] & 1L << block) == 0
+                && (_blocks.size() == 0
+                    || _blocks.get(_blocks.size() - 1) != block)) {
+                _blocks.add(block);
+            }
+            long bit = 1L << n;
+            if (_recording && (_touched[n >>> 6] & bit) == 0) {
+                _touched[n >>> 6] |= bit;
+                _entries.add(n);
+                _entryValues.add(old);
+            }
+            if ((_queued[n >>> 6] & bit) == 0) {
+                _queued[n >>> 6] |= bit;
+                _changed.add(n);
+            }
+            _keyChange ^= zobrist(n, old) ^ zobrist(n, v);
+            int oldSide = old & SIDE_MASK, side = v & SIDE_MASK;
+            int oldNum = spots(old), num = spots(v), cap = _topo.capacity(n);
+            _spotsChange[oldSide] -= oldNum;
+            _spotsChange[side] += num;
+            if (oldSide != side) {
+                _countChange[oldSide] -= 1;
+                _countChange[side] += 1;
+                _rimChange[oldSide] -= MAX_CAPACITY - cap;
+                _rimChange[side] += MAX_CAPACITY - cap;
+            }
+            if (oldNum == cap) {
+                _criticalChange[oldSide] -= 1;
+            }
+            if (num == cap) {
+                _criticalChange[side] += 1;
+            }
+        }
+
+        /** Add my account of the changes made in the last wave to the
+         *  board's counts, hash key, and journal, and clear it. */
+        void merge() {
+            _key ^= _keyChange;
+            _keyChange = 0;
+            for (int s = 0; s < SIDES.length; s += 1) {
+                _sideCounts[s] += _countChange[s];
+                _sideSpots[s] += _spotsChange[s];
+                _criticalCounts[s] += _criticalChange[s];
+                _rimWeights[s] += _rimChange[s];
+            }
+            Arrays.fill(_countChange, 0);
+            Arrays.fill(_spotsChange, 0);
+            Arrays.fill(_criticalChange, 0);
+            Arrays.fill(_rimChange, 0);
+            for (int i = 0; i < _entries.size(); i += 1) {
+                if (_journalSize == _journal.length) {
+                    _journal = Arrays.copyOf(_journal, 2 * _journal.length);
+                }
+                _journal[_journalSize] =
+                    entry(_entries.get(i), (byte) _entryValues.get(i));
+                _journalSize += 1;
+            }
+            _entries.clear();
+            _entryValues.clear();
+            for (int i = 0; i < _blocks.size(); i += 1) {
+                markBlock(_blocks.get(i));
+            }
+            _blocks.clear();
+        }
+
+        /** First square of mine. */
+        private final int _lo;
+        /** One past my last square. */
+        private final int _hi;
+        /** The Stripes before and after me, or null. */
+        private Stripe _prev, _next;
+        /** My squares to topple in the next wave. */
+        private final IntList _frontier = new IntList();
+        /** My squares changed in this wave. */
+        private final IntList _changed = new IntList();
+        /** Squares of the Stripes before and after me to which my
+         *  squares spilled a spot in this wave. */
+        private final IntList _toPrev = new IntList(), _toNext = new IntList();
+        /** Squares of mine first changed during this move, not yet
+         *  merged into the journal, and their values before the
+         *  change. */
+        private final IntList _entries = new IntList(),
+            _entryValues = new IntList();
+        /** Blocks of 64 squares I have changed that were not marked in
+         *  _dirty, for merge to mark.  Stripes do not mark _dirty
+         *  themselves, since each of its words covers the blocks of
+         *  several Stripes. */
+        private final IntList _blocks = new IntList();
+        /** Change to the hash key, not yet merged. */
+        private long _keyChange;
+        /** Changes to the per-side counts, not yet merged. */
+        private final int[] _countChange = new int[SIDES.length],
+            _spotsChange = new int[SIDES.length],
+            _criticalChange = new int[SIDES.length],
+            _rimChange = new int[SIDES.length];
+    }
+
+    /** The Stripes used by waves on this board, or null if not yet
+     *  needed. */
+    private Stripe[] _stripes;
+
+    /** A list of ints that grows as needed and is reused once cleared. */
+    private static class IntList {
+
+        /** Return the number of items in me. */
+        int size() {
+            return _size;
+        }
+
+        /** Return item #K. */
+        int get(int k) {
+            return _items[k];
+        }
+
+        /** Append X. */
+        void add(int x) {
+            if (_size == _items.length) {
+                _items = Arrays.copyOf(_items, 2 * _items.length);
+            }
+            _items[_size] = x;
+            _size += 1;
+        }
+
+        /** Remove all items. */
+        void clear() {
+            _size = 0;
+        }
+
+        /** My items, followed by unused space. */
+        private int[] _items = new int[INITIAL_QUEUE_SIZE];
+        /** Number of items. */
+        private int _size;
     }
 
     /** Returns my dumped representation.
@@ -513,71 +1284,84 @@ class Board {
     @Override
     public String toString() {
         Formatter out = new Formatter();
-        String sep;
+        dump(out);
+        return out.toString();
+    }
+
+    /** Write my dumped representation (as for toString) to OUT, one row
+     *  at a time, so that OUT may stream even a very large board. */
+    void dump(Formatter out) {
+        StringBuilder row = new StringBuilder();
         out.format("===%n");
-        for (int row = 1; row < size() + 1; row++) {
-            out.format("   ");
-            for (int col = 1; col < size() + 1; col++) {
-                sep = " ";
-                if (this.exists(row, col)) {
-                    Square square = this.get(row, col);
-                    if (square.getSide() == WHITE) {
-                        out.format("%s%d" + "-", sep, square.getSpots());
-                    } else if (square.getSide() == RED) {
-                        out.format("%s%d" + "r", sep, square.getSpots());
-                    } else if (square.getSide() == BLUE) {
-                        out.format("%s%d" + "b", sep, square.getSpots());
-                    }
-                } else {
-                    System.err.printf("board is not completed!");
-                }
-                sep = "";
+        for (int r = 1; r <= size(); r += 1) {
+            row.setLength(0);
+            row.append("   ");
+            for (int c = 1; c <= size(); c += 1) {
+                appendSquare(row.append(' '), get(r, c));
             }
-            out.format("%n");
+            out.format("%s%n", row);
         }
         out.format("===%n");
-        return out.toString();
     }
 
     /** Returns an external rendition of me, suitable for human-readable
      *  textual display, with row and column numbers.  This is distinct
      *  from the dumped representation (returned by toString). */
     public String toDisplayString() {
-        String[] lines = toString().trim().split("\\R");
         Formatter out = new Formatter();
-        for (int i = 1; i + 1 < lines.length; i += 1) {
-            out.format("%2d %s%n", i, lines[i].trim());
+        display(out);
+        String result = out.toString();
+        return result.substring(0, result.length()
+                                - System.lineSeparator().length());
+    }
+
+    /** Write my human-readable rendition (as for toDisplayString) to OUT,
+     *  one row at a time. */
+    void display(Formatter out) {
+        StringBuilder row = new StringBuilder();
+        for (int r = 1; r <= size(); r += 1) {
+            row.setLength(0);
+            row.append(String.format("%2d", r));
+            for (int c = 1; c <= size(); c += 1) {
+                appendSquare(row.append(' '), get(r, c));
+            }
+            out.format("%s%n", row);
         }
-        out.format("  ");
-        for (int i = 1; i <= size(); i += 1) {
-            out.format("%3d", i);
+        row.setLength(0);
+        row.append("  ");
+        for (int c = 1; c <= size(); c += 1) {
+            row.append(String.format("%3d", c));
+        }
+        out.format("%s%n", row);
+    }
+
+    /** Append the spots and color of SQUARE to ROW, as in the dumped
+     *  representation. */
+    private static void appendSquare(StringBuilder row, Square square) {
+        row.append(square.getSpots());
+        if (square.getSide() == RED) {
+            row.append('r');
+        } else if (square.getSide() == BLUE) {
+            row.append('b');
+        } else {
+            row.append('-');
         }
-        return out.toString();
     }
 
     /** Returns the number of neighbors of the square at row R, column C. */
     int neighbors(int r, int c) {
-        int size = size();
-        int n;
-        n = 0;
-        if (r > 1) {
-            n += 1;
-        }
-        if (c > 1) {
-            n += 1;
-        }
-        if (r < size) {
-            n += 1;
-        }
-        if (c < size) {
-            n += 1;
-        }
-        return n;
+        return neighbors(sqNum(r, c));
     }
 
     /** Returns the number of neighbors of square #N. */
     int neighbors(int n) {
-        return neighbors(row(n), col(n));
+        return topology().capacity(n);
+    }
+
+    /** Returns the layout of this board: the neighbors and capacity of
+     *  every square. */
+    Topology topology() {
+        return _topo;
     }
 
     @Override
@@ -586,9 +1370,12 @@ class Board {
             return false;
         } else {
             Board B = (Board) obj;
-            if (this.size() != B.size() || this.numPieces() != B.numPieces()) {
+            if (this.size() != B.size() || this.hashKey() != B.hashKey()) {
                 return false;
             }
+            if (_cells != null && B._cells != null) {
+                return _cells.contentEquals(B._cells);
+            }
             for (int i = 0; i < size() * size(); i++) {
                 if (this.get(i).getSide() != B.get(i).getSide()
                         || this.get(i).getSpots() != B.get(i).getSpots()) {
@@ -601,7 +1388,8 @@ class Board {
 
     @Override
     public int hashCode() {
-        return numPieces();
+        long key = hashKey();
+        return (int) (key ^ (key >>> 32));
     }
 
     /** Set my notifier to NOTIFY. */
@@ -612,10 +1400,90 @@ class Board {
 
     /** Take any action that has been set for a change in my state.
      *  For GUI */
-    private void announce() {
+    void announce() {
         _notifier.accept(this);
     }
 
+    /** Boards with at least this many squares on a side may topple in
+     *  parallel. */
+    static final int PARALLEL_SIZE = 64;
+
+    /** Number of squares waiting to topple at which a cascade on a large
+     *  enough board switches to parallel waves. */
+    private static final int PARALLEL_FRONTIER = 256;
+
+    /** Number of stripes per cascade thread, so that threads whose
+     *  stripes finish early can help with the others. */
+    private static final int STRIPES_PER_THREAD = 4;
+
+    /** Pool running parallel cascades, or null if cascades are not
+     *  parallel. */
+    private static ForkJoinPool _cascadePool;
+
+    /** Number of threads in _cascadePool. */
+    private static int _cascadeThreads;
+
+    static {
+        setCascadeThreads(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Initial capacity of the undo journal. */
+    private static final int INITIAL_JOURNAL_SIZE = 64;
+
+    /** Number of neighbors of an interior square. */
+    private static final int MAX_CAPACITY = 4;
+
+    /** Number of bits in a packed cell value. */
+    private static final int CELL_BITS = 8;
+
+    /** Mask extracting a packed cell value. */
+    private static final long CELL_MASK = (1L << CELL_BITS) - 1;
+
+    /** Initial capacity of the work queue used by jump. */
+    private static final int INITIAL_QUEUE_SIZE = 64;
+
+    /** Number of squares randomMove tries before counting its way to a
+     *  legal one. */
+    private static final int RANDOM_TRIES = 4;
+
+    /** Number of low-order bits of a packed cell holding its color. */
+    static final int SIDE_BITS = 2;
+
+    /** Mask extracting the color ordinal from a packed cell. */
+    static final int SIDE_MASK = (1 << SIDE_BITS) - 1;
+
+    /** Sides, indexed by ordinal. */
+    private static final Side[] SIDES = Side.values();
+
+    /** Packed value of the initial square: one white spot. */
+    static final byte INITIAL_CELL = (byte) (1 << SIDE_BITS);
+
+    /** The memoized Square for each packed cell value (null for values
+     *  that do not occur). */
+    private static final Square[] SQUARES = new Square[10 << SIDE_BITS];
+
+    /** Number of squares whose zobrist values are tabulated. */
+    private static final int ZOBRIST_SQUARES =
+        Defaults.MAX_BOARD_SIZE * Defaults.MAX_BOARD_SIZE;
+
+    /** Tabulated zobrist values: that for square #N holding packed value
+     *  V is at index N * SQUARES.length + V. */
+    private static final long[] ZOBRIST =
+        new long[ZOBRIST_SQUARES * SQUARES.length];
+
+    static {
+        for (int spots = 1; spots < 10; spots += 1) {
+            for (Side player : SIDES) {
+                SQUARES[pack(player, spots)] = square(player, spots);
+            }
+        }
+        for (int n = 0; n < ZOBRIST_SQUARES; n += 1) {
+            for (int v = 0; v < SQUARES.length; v += 1) {
+                ZOBRIST[n * SQUARES.length + v] = zobristValue(n, (byte) v);
+            }
+        }
+    }
+
     /** A notifier that does nothing. */
     private static final Consumer<Board> NOP = (s) -> { };
 
@@ -630,9 +1498,44 @@ class Board {
     /** Size of the board. */
     private int _size;
 
-    /** The storage of squares in a board. */
-    private ArrayList<Square> _table;
+    /** Neighbors and capacities of the squares of this board. */
+    private Topology _topo;
+
+    /** The contents of the board: packed square values in row-major
+     *  order.  Bits 0-1 hold the ordinal of the square's color; the
+     *  remaining bits hold its number of spots. */
+    private CellStore _cells;
+    /** A persistent copy of _cells, from which snapshot takes its
+     *  copies, or null if snapshot has not been called since my storage
+     *  was last set up.  Up to date but for the blocks marked in
+     *  _dirty. */
+    private CellStore _shadow;
+    /** Bit set of the blocks of 64 squares (#64K to #64K+63 for block
+     *  K) changed since _shadow was last brought up to date, or null if
+     *  there is no _shadow. */
+    private long[] _dirty;
+    /** The words of _dirty that are not 0, so that snapshot need not
+     *  look at the others. */
+    private IntList _dirtyWords;
 
     /** Total spots in the board. */
     private int _numSpots;
+
+    /** Zobrist hash of the current position (see hashKey). */
+    private long _key;
+
+    /** Number of squares of each color, indexed by Side ordinal. */
+    private final int[] _sideCounts = new int[SIDES.length];
+
+    /** Number of spots on the squares of each color, indexed by Side
+     *  ordinal. */
+    private final int[] _sideSpots = new int[SIDES.length];
+
+    /** Number of critical squares of each color (see criticalOfSide),
+     *  indexed by Side ordinal. */
+    private final int[] _criticalCounts = new int[SIDES.length];
+
+    /** Rim weight of each color (see rimOfSide), indexed by Side
+     *  ordinal. */
+    private final int[] _rimWeights = new int[SIDES.length];
 }
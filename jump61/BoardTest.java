@@ -2,6 +2,11 @@ package jump61;
 
 import static jump61.Side.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -95,7 +100,7 @@ public class BoardTest {
         A.copy(B);
         A.toDisplayString();
         checkBoard("#3C", A, 1, 1, 1, RED, 2, 1, 3, RED, 1, 2, 2, RED);
-        assertTrue(A.getHistory().size() == 1);
+        assertFalse("copy has undo history", A.canUndo());
     }
 
     @Test
@@ -123,6 +128,565 @@ public class BoardTest {
     }
 
 
+    @Test
+    public void testCounts() {
+        Board B = new Board(2);
+        assertEquals("wrong spots", 4, B.numPieces());
+        assertEquals("wrong count", 4, B.numOfSide(WHITE));
+        B.addSpot(RED, 1, 1);
+        B.addSpot(BLUE, 2, 2);
+        assertEquals("wrong spots", 6, B.numPieces());
+        assertEquals("wrong count", 1, B.numOfSide(RED));
+        assertEquals("wrong count", 1, B.numOfSide(BLUE));
+        assertFalse("game over too soon", B.isTerminal());
+        B.addSpot(RED, 1, 1);
+        assertEquals("wrong spots", 7, B.numPieces());
+        assertEquals("wrong count", 3, B.numOfSide(RED));
+        assertEquals("wrong count", 1, B.numOfSide(BLUE));
+        B.addSpot(BLUE, 2, 2);
+        assertTrue("game should be over", B.isTerminal());
+        assertEquals("wrong winner", BLUE, B.getWinner());
+        assertEquals("wrong count", 0, B.numOfSide(RED));
+        assertEquals("wrong count", 4, B.numOfSide(BLUE));
+    }
+
+    @Test
+    public void testRedo() {
+        Board B = new Board(6);
+        B.addSpot(RED, 1, 1);
+        B.addSpot(BLUE, 2, 1);
+        B.addSpot(RED, 1, 1);
+        assertFalse("nothing to redo", B.canRedo());
+        B.undo();
+        B.undo();
+        checkBoard("#1U", B, 1, 1, 2, RED);
+        assertEquals("wrong spots", 37, B.numPieces());
+        B.redo();
+        checkBoard("#2R", B, 1, 1, 2, RED, 2, 1, 2, BLUE);
+        B.redo();
+        checkBoard("#3R", B, 1, 1, 1, RED, 2, 1, 3, RED, 1, 2, 2, RED);
+        assertEquals("wrong count", 3, B.numOfSide(RED));
+        assertFalse("nothing to redo", B.canRedo());
+        B.undo();
+        B.addSpot(RED, 3, 3);
+        assertFalse("redo after new move", B.canRedo());
+        checkBoard("#3N", B, 1, 1, 2, RED, 2, 1, 2, BLUE, 3, 3, 2, RED);
+    }
+
+
+    @Test
+    public void testSetUndo() {
+        Board B = new Board(4);
+        B.addSpot(RED, 0);
+        Board afterRed = new Board(B);
+        B.addSpot(BLUE, 5);
+        B.set(1, 2, RED);
+        B.set(5, 1, RED);
+        Board edited = new Board(B);
+        B.undo();
+        assertEquals("set not undone", afterRed, B);
+        B.undo();
+        assertEquals("undo did not reach start", new Board(4), B);
+        B.redo();
+        B.redo();
+        assertEquals("set not redone", edited, B);
+        assertEquals("wrong count", 3, B.numOfSide(RED));
+    }
+
+    @Test
+    public void testMakeUnmake() {
+        Board B = new Board(3);
+        B.addSpot(RED, 1, 1);
+        B.addSpot(BLUE, 2, 2);
+        Board before = new Board(B);
+        int t1 = B.makeMove(RED, 0);
+        checkBoard("#M1", B, 1, 1, 1, RED, 1, 2, 2, RED, 2, 1, 2, RED,
+                   2, 2, 2, BLUE);
+        int t2 = B.makeMove(BLUE, 4);
+        B.unmakeMove(t2);
+        checkBoard("#U2", B, 1, 1, 1, RED, 1, 2, 2, RED, 2, 1, 2, RED,
+                   2, 2, 2, BLUE);
+        B.unmakeMove(t1);
+        assertEquals("unmake did not restore", before, B);
+        assertEquals("wrong spots", before.numPieces(), B.numPieces());
+        assertEquals("wrong count", 1, B.numOfSide(RED));
+        B.undo();
+        checkBoard("#1U", B, 1, 1, 2, RED);
+    }
+
+    @Test
+    public void testEvalTerms() {
+        Board B = new Board(3);
+        assertEquals("wrong rim", 12, B.rimOfSide(WHITE));
+        B.addSpot(RED, 1, 1);
+        B.addSpot(BLUE, 2, 2);
+        assertEquals("wrong spots", 2, B.spotsOfSide(RED));
+        assertEquals("wrong spots", 2, B.spotsOfSide(BLUE));
+        assertEquals("wrong critical", 1, B.criticalOfSide(RED));
+        assertEquals("wrong critical", 0, B.criticalOfSide(BLUE));
+        assertEquals("wrong rim", 2, B.rimOfSide(RED));
+        assertEquals("wrong rim", 0, B.rimOfSide(BLUE));
+        B.addSpot(RED, 1, 1);
+        assertEquals("wrong spots", 5, B.spotsOfSide(RED));
+        assertEquals("wrong critical", 0, B.criticalOfSide(RED));
+        assertEquals("wrong rim", 4, B.rimOfSide(RED));
+        assertEquals("wrong rim", 8, B.rimOfSide(WHITE));
+        B.undo();
+        assertEquals("wrong spots", 2, B.spotsOfSide(RED));
+        assertEquals("wrong critical", 1, B.criticalOfSide(RED));
+        assertEquals("wrong rim", 2, B.rimOfSide(RED));
+    }
+
+    /** Check that BitBoard B holds the same position as Board A,
+     *  using MSG in error messages. */
+    private void checkSame(String msg, Board A, Board B) {
+        assertEquals(msg + ": boards differ", A, B);
+        assertEquals(msg + ": keys differ", A.hashKey(), B.hashKey());
+        assertEquals(msg + ": spots differ", A.numPieces(), B.numPieces());
+        for (Side side : Side.values()) {
+            assertEquals(msg, A.numOfSide(side), B.numOfSide(side));
+            assertEquals(msg, A.spotsOfSide(side), B.spotsOfSide(side));
+            assertEquals(msg, A.criticalOfSide(side),
+                         B.criticalOfSide(side));
+            assertEquals(msg, A.rimOfSide(side), B.rimOfSide(side));
+        }
+    }
+
+    @Test
+    public void testBitBoard() {
+        Random random = new Random(61);
+        for (int N = 2; N <= BitBoard.MAX_SIZE; N += 1) {
+            for (int game = 0; game < 20; game += 1) {
+                Board A = new Board(N);
+                Board B = new BitBoard(N);
+                String msg = "size " + N + " game " + game;
+                while (!A.isTerminal()) {
+                    checkSame(msg, A, B);
+                    Side player = A.whoseMove();
+                    int n;
+                    do {
+                        n = random.nextInt(N * N);
+                    } while (!A.isLegal(player, n));
+                    assertTrue(msg, B.isLegal(player, n));
+                    int token = B.makeMove(player, n);
+                    B.unmakeMove(token);
+                    checkSame(msg + " unmake", A, B);
+                    A.addSpot(player, n);
+                    B.addSpot(player, n);
+                }
+                assertEquals(msg, A.getWinner(), B.getWinner());
+                B.undo();
+                A.undo();
+                checkSame(msg + " undo", A, B);
+                A.redo();
+                B.redo();
+                assertEquals(msg, A.getWinner(), B.getWinner());
+            }
+        }
+    }
+
+    @Test
+    public void testStorage() throws IOException {
+        Path file = Files.createTempFile("jump61", ".board");
+        try {
+            Board A = new Board(7), B = Board.offHeap(7),
+                C = Board.create(file, 7);
+            Random random = new Random(61);
+            for (int k = 0; k < 40 && !A.isTerminal(); k += 1) {
+                Side player = A.whoseMove();
+                int n;
+                do {
+                    n = random.nextInt(49);
+                } while (!A.isLegal(player, n));
+                A.addSpot(player, n);
+                B.addSpot(player, n);
+                C.addSpot(player, n);
+            }
+            assertEquals("off-heap board differs", A, B);
+            assertEquals("mapped board differs", A, C);
+            C.checkpoint();
+            Board D = Board.open(file);
+            assertEquals("reopened board differs", A.toString(),
+                         D.toString());
+            assertEquals("wrong key", A.hashKey(), D.hashKey());
+            assertEquals("wrong spots", A.numPieces(), D.numPieces());
+            D = Board.create(file, 5);
+            D.set(1, 1, 3, RED);
+            D.checkpoint();
+            checkBoard("#settled", Board.open(file), 1, 1, 1, RED,
+                       1, 2, 2, RED, 2, 1, 2, RED);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        int N = 40;
+        Board B = new Board(N);
+        Random random = new Random(61);
+        Board[] snapshots = new Board[20], copies = new Board[20];
+        for (int k = 0; k < snapshots.length; k += 1) {
+            snapshots[k] = B.snapshot();
+            copies[k] = new Board(B);
+            for (int m = 0; m < 100 && !B.isTerminal(); m += 1) {
+                Side player = B.whoseMove();
+                int n;
+                do {
+                    n = random.nextInt(N * N);
+                } while (!B.isLegal(player, n));
+                B.addSpot(player, n);
+            }
+        }
+        for (int k = 0; k < snapshots.length; k += 1) {
+            assertEquals("snapshot changed", copies[k], snapshots[k]);
+            assertEquals("wrong count", copies[k].numOfSide(RED),
+                         snapshots[k].numOfSide(RED));
+            assertEquals("wrong key", copies[k].hashKey(),
+                         snapshots[k].hashKey());
+        }
+        assertFalse("board left its array", B.cells().persistent());
+        B.undo();
+        assertEquals("stale snapshot", new Board(B), B.snapshot());
+        snapshots[0].addSpot(RED, 1, 1);
+        assertEquals("snapshot changed", copies[0], snapshots[0]);
+        B.clear(N);
+        assertEquals("clear failed", new Board(N), B);
+        assertEquals("snapshot changed", copies[19], snapshots[19]);
+    }
+
+    @Test
+    public void testScan() {
+        CellScan plain = new CellScan(), scan = CellScan.get();
+        Random random = new Random(61);
+        for (int N : new int[] { 2, 7, 37, 70 }) {
+            Board A = new Board(N), B = Board.offHeap(N);
+            for (int n = 0; n < N * N; n += 1) {
+                int spots = 1 + random.nextInt(5);
+                Side color = Side.values()[random.nextInt(3)];
+                A.set(n, spots, color);
+                B.set(n, spots, color);
+            }
+            Board C = new Board(B);
+            C.set(N * N - 1, 1, RED);
+            for (Board X : new Board[] { A, B }) {
+                boolean[] over = new boolean[N * N];
+                scan.overfull(X.cells(), (n) -> over[n] = true);
+                for (int n = 0; n < N * N; n += 1) {
+                    assertEquals("wrong over-full square " + n,
+                                 X.isOverfull(n), over[n]);
+                }
+            }
+            assertTrue("should be equal", scan.equal(A.cells(), B.cells()));
+            assertEquals("wrong comparison",
+                         plain.equal(B.cells(), C.cells()),
+                         scan.equal(B.cells(), C.cells()));
+        }
+    }
+
+    @Test
+    public void testLargeBoard() {
+        int N = Defaults.MAX_BOARD_SIZE + 1;
+        Board B = new Board(N);
+        B.addSpot(RED, 1, 1);
+        B.addSpot(BLUE, N, N);
+        B.addSpot(RED, 1, 1);
+        assertEquals("corner not toppled", Square.square(RED, 1), B.get(1, 1));
+        assertEquals("bad spill", Square.square(RED, 2), B.get(1, 2));
+        assertEquals("bad spill", Square.square(RED, 2), B.get(2, 1));
+        assertEquals("wrong spots", N * N + 3, B.numPieces());
+        assertFalse("large boards have no undo", B.canUndo());
+        String dump = B.toString();
+        int token = B.makeMove(BLUE, B.sqNum(N, N));
+        B.unmakeMove(token);
+        assertEquals("unmake failed", dump, B.toString());
+    }
+
+    @Test
+    public void testLargeMoveMemory()
+        throws IOException, InterruptedException {
+        String java = Path.of(System.getProperty("java.home"),
+                              "bin", "java").toString();
+        Process child =
+            new ProcessBuilder(java, "-Xmx32m", "-cp",
+                               System.getProperty("java.class.path"),
+                               Comb.class.getName(), "2000")
+            .inheritIO().start();
+        assertEquals("move on large board ran out of memory",
+                     0, child.waitFor());
+    }
+
+    /** Plays one move on an N x N board, N being the argument, whose
+     *  cascade topples every other row and changes every square, with a
+     *  heap too small to record a change of every square. */
+    public static class Comb {
+        /** Play the move on a board of size ARGS[0]. */
+        public static void main(String... args) {
+            int N = Integer.parseInt(args[0]);
+            Board B = Board.offHeap(N);
+            for (int r = 1; r <= N; r += 1) {
+                for (int c = 1; c <= N; c += 1) {
+                    int spots =
+                        r % 2 == 1 || c == 1 ? B.neighbors(r, c) : 1;
+                    B.set(r, c, spots, r == 1 && c == 1 ? RED : BLUE);
+                }
+            }
+            B.addSpot(RED, 1, 1);
+            System.exit(B.getWinner() == RED ? 0 : 1);
+        }
+    }
+
+    @Test
+    public void testSnapshotCascade() {
+        int threads = Board.cascadeThreads();
+        int N = Board.PARALLEL_SIZE;
+        Random random = new Random(62);
+        Board A = new Board(N), B = new Board(N);
+        for (int r = 1; r <= N; r += 1) {
+            for (int c = 1; c <= N; c += 1) {
+                int spots = A.neighbors(r, c) - random.nextInt(5) / 4;
+                Side color = random.nextBoolean() ? RED : BLUE;
+                A.set(r, c, spots, color);
+                B.set(r, c, spots, color);
+            }
+        }
+        try {
+            while (!A.isTerminal()) {
+                Side player = A.whoseMove();
+                int n;
+                do {
+                    n = random.nextInt(N * N);
+                } while (!A.isLegal(player, n));
+                String before = A.toString();
+                Board snapshot = A.snapshot();
+                Board.setCascadeThreads(4);
+                A.addSpot(player, n);
+                Board.setCascadeThreads(1);
+                B.addSpot(player, n);
+                assertEquals("snapshot changed", before, snapshot.toString());
+                assertEquals("different winners",
+                             B.getWinner(), A.getWinner());
+                if (!A.isTerminal()) {
+                    assertEquals("different results", B.toString(),
+                                 A.toString());
+                }
+            }
+        } finally {
+            Board.setCascadeThreads(threads);
+        }
+    }
+
+    @Test
+    public void testParallelCascade() {
+        int threads = Board.cascadeThreads();
+        int N = Board.PARALLEL_SIZE;
+        Random random = new Random(61);
+        Board A = new Board(N), B = new Board(N);
+        for (int r = 1; r <= N; r += 1) {
+            for (int c = 1; c <= N; c += 1) {
+                int spots = A.neighbors(r, c) - random.nextInt(5) / 4;
+                Side color = random.nextBoolean() ? RED : BLUE;
+                A.set(r, c, spots, color);
+                B.set(r, c, spots, color);
+            }
+        }
+        try {
+            for (int k = 0; k < 50 && !A.isTerminal(); k += 1) {
+                Side player = A.whoseMove();
+                int n;
+                do {
+                    n = random.nextInt(N * N);
+                } while (!A.isLegal(player, n));
+                Board.setCascadeThreads(4);
+                String before = A.toString();
+                A.unmakeMove(A.makeMove(player, n));
+                assertEquals("unmake failed", before, A.toString());
+                A.addSpot(player, n);
+                Board.setCascadeThreads(1);
+                B.addSpot(player, n);
+                assertEquals("different winners",
+                             A.getWinner(), B.getWinner());
+                if (!A.isTerminal()) {
+                    assertEquals("different results", B.toString(),
+                                 A.toString());
+                    assertEquals("wrong key", B.hashKey(), A.hashKey());
+                    assertEquals("wrong critical count",
+                                 B.criticalOfSide(player),
+                                 A.criticalOfSide(player));
+                }
+            }
+        } finally {
+            Board.setCascadeThreads(threads);
+        }
+    }
+
+    @Test
+    public void testHash() {
+        Board A = new Board(4), B = new Board(4);
+        assertEquals("empty boards differ", A.hashKey(), B.hashKey());
+        A.addSpot(RED, 1, 1);
+        assertNotEquals("hash unchanged by move", A.hashKey(), B.hashKey());
+        assertFalse("boards should differ", A.equals(B));
+        B.set(1, 1, 2, RED);
+        assertEquals("same position, different keys",
+                     A.hashKey(), B.hashKey());
+        assertEquals("boards should be equal", A, B);
+        assertEquals("bad hashCode", A.hashCode(), B.hashCode());
+        A.undo();
+        assertEquals("undo did not restore key",
+                     new Board(4).hashKey(), A.hashKey());
+        assertEquals("bad constant key", B.hashKey(),
+                     new ConstantBoard(B).hashKey());
+    }
+
+    @Test
+    public void testPlayout() {
+        for (int size = 2; size <= Defaults.MAX_BOARD_SIZE; size += 1) {
+            Board board = BitBoard.of(new Board(size));
+            Playout playout = new Playout(size);
+            XorShift random = playout.random();
+            for (int game = 0; game < 20; game += 1) {
+                int token = -1;
+                while (!board.isTerminal()) {
+                    Side player = board.whoseMove();
+                    int n = board.randomMove(player, random);
+                    assertTrue("illegal random move",
+                               board.isLegal(player, n));
+                    int t = board.makeMove(player, n);
+                    token = token < 0 ? t : token;
+                    Board copy = new Board(board);
+                    long key = board.hashKey();
+                    Side winner = playout.winner(board);
+                    assertNotNull("no winner", winner);
+                    assertEquals("playout changed board", copy, board);
+                    assertEquals("playout changed key", key, board.hashKey());
+                    if (board.isTerminal()) {
+                        assertEquals("wrong winner", board.getWinner(),
+                                     winner);
+                    }
+                }
+                board.unmakeMove(token);
+            }
+        }
+    }
+
+    @Test
+    public void testMonteCarlo() {
+        Board position = new Board(6);
+        position.addSpot(RED, 1, 1);
+        position.addSpot(BLUE, 3, 3);
+        SearchParams params = new SearchParams();
+        params.setNodeLimit(50);
+        for (int capacity : new int[] { 1, 100, 10000 }) {
+            MonteCarloPlayer player =
+                new MonteCarloPlayer(null, RED, 61, capacity);
+            int move = player.findMove(position, params);
+            assertTrue("illegal move", position.isLegal(RED, move));
+            assertEquals("search changed board", position.hashKey(),
+                         player.board().hashKey());
+        }
+    }
+
+    @Test
+    public void testOpeningBook() throws IOException {
+        Path file = Files.createTempFile("jump61", ".book");
+        try {
+            assertEquals("wrong book size",
+                         1 + 4 + 3 + 1 + 9 + 8,
+                         OpeningBook.build(file, 2, 3, 2, 2));
+            OpeningBook book = OpeningBook.open(file);
+            SearchParams params = new SearchParams();
+            params.setDepthLimit(2);
+            Board start = new Board(3);
+            int move = new AI(null, RED).findMove(
+                start, params, new TranspositionTable(
+                    1, TranspositionTable.Replacement.DEPTH));
+            assertEquals("wrong book move", move,
+                         book.probe(start.hashKey()));
+            start.makeMove(RED, move);
+            start.makeMove(BLUE, move == 0 ? 1 : 0);
+            assertTrue("reply not covered", book.probe(start.hashKey()) >= 0);
+            assertEquals("bogus entry", -1,
+                         book.probe(new Board(4).hashKey()));
+            Files.write(file, new byte[] { 1, 2, 3 });
+            try {
+                OpeningBook.open(file);
+                fail("garbage accepted as a book");
+            } catch (IOException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testTablebase() throws IOException {
+        Path file = Files.createTempFile("jump61", ".tb");
+        try {
+            Tablebase.build(file, 2);
+            Tablebase tablebase = Tablebase.open(file);
+            Board board = new Board(2);
+            assertTrue("2x2 not covered", tablebase.covers(board));
+            assertFalse("3x3 covered", tablebase.covers(new Board(3)));
+            checkTablebase(tablebase, board);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testProver() {
+        Board board = new Board(3);
+        Prover prover = new Prover(Defaults.TABLE_SIZE);
+        SearchParams params = new SearchParams();
+        params.setNodeLimit(100);
+        assertNull("proven in 100 nodes", prover.prove(board, params));
+        params.setNodeLimit(0);
+        assertEquals("wrong winner", BLUE, prover.prove(board, params));
+        for (int move : prover.line()) {
+            assertTrue("illegal move in line",
+                       board.isLegal(board.whoseMove(), move));
+            board.makeMove(board.whoseMove(), move);
+        }
+        assertEquals("line does not end in a win", BLUE, board.getWinner());
+    }
+
+    /** Check that TABLEBASE gives the value found by searching to the end
+     *  for BOARD, and every position reachable from it, and that its
+     *  best moves achieve those values.  Returns the value. */
+    private int checkTablebase(Tablebase tablebase, Board board) {
+        Side player = board.whoseMove();
+        int win = Integer.MAX_VALUE, loss = 0;
+        for (int n = 0; n < board.size() * board.size(); n += 1) {
+            if (board.isLegal(player, n)) {
+                int token = board.makeMove(player, n);
+                if (board.isTerminal()) {
+                    win = 1;
+                } else {
+                    int value = checkTablebase(tablebase, board);
+                    if (Tablebase.wins(value)) {
+                        loss = Math.max(loss, Tablebase.moves(value) + 1);
+                    } else {
+                        win = Math.min(win, Tablebase.moves(value) + 1);
+                    }
+                }
+                board.unmakeMove(token);
+            }
+        }
+        int value = win < Integer.MAX_VALUE ? 2 * win + 1 : 2 * loss;
+        assertEquals("wrong tablebase value", value, tablebase.probe(board));
+        int token = board.makeMove(player, tablebase.bestMove(board));
+        if (!board.isTerminal()) {
+            assertEquals("best move not best", value,
+                         tablebase.probe(board) + (Tablebase.wins(value)
+                                                   ? 3 : 1));
+        }
+        board.unmakeMove(token);
+        return value;
+    }
+
+
     /** Checks that B conforms to the description given by CONTENTS.
      *  CONTENTS should be a sequence of groups of 4 items:
      *  r, c, n, s, where r and c are row and column number of a square of B,
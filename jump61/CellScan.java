@@ -0,0 +1,94 @@
+package jump61;
+
+import java.util.function.IntConsumer;
+
+/** Scans over all the squares of a board's CellStore: finding over-full
+ *  squares and comparing two boards.
+ *  These are the operations on large boards that must look at every
+ *  square.  This version looks at one square at a time.  Where the
+ *  jdk.incubator.vector module is present (java --add-modules
+ *  jdk.incubator.vector), get returns a VectorCellScan, which compares
+ *  many squares at once.
+ *  @author Zeline Wang
+ */
+class CellScan {
+
+    /** Return the fastest CellScan available. */
+    static CellScan get() {
+        return INSTANCE;
+    }
+
+    /** Call ACTION on the number of each over-full square in CELLS, in
+     *  increasing order. */
+    void overfull(CellStore cells, IntConsumer action) {
+        int N = cells.size();
+        for (int r = 0; r < N; r += 1) {
+            byte[] limits = limits(N, r);
+            for (int c = 0, n = r * N; c < N; c += 1, n += 1) {
+                if (cells.get(n) >= limits[c]) {
+                    action.accept(n);
+                }
+            }
+        }
+    }
+
+    /** Return true iff A and B hold the same squares. */
+    boolean equal(CellStore a, CellStore b) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        for (int n = 0; n < a.length(); n += 1) {
+            if (a.get(n) != b.get(n)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the least packed values that make the squares of row R
+     *  (numbering from 0) of an N x N board over-full, by column.  Since
+     *  the color is in the low bits of a packed value, a square is
+     *  over-full iff its value is at least that of one spot more than its
+     *  capacity with color 0.  All rows but the first and last are
+     *  alike. */
+    byte[] limits(int N, int r) {
+        boolean rim = r == 0 || r == N - 1;
+        byte[] result = rim ? _rimLimits : _innerLimits;
+        if (result == null || result.length != N) {
+            result = new byte[N];
+            for (int c = 0; c < N; c += 1) {
+                int cap = MAX_CAPACITY - (rim ? 1 : 0) - (c == 0 ? 1 : 0)
+                    - (c == N - 1 ? 1 : 0);
+                result[c] = (byte) ((cap + 1) << Board.SIDE_BITS);
+            }
+            if (rim) {
+                _rimLimits = result;
+            } else {
+                _innerLimits = result;
+            }
+        }
+        return result;
+    }
+
+    /** Return a new VectorCellScan, or, if the vector module is missing,
+     *  a plain CellScan. */
+    private static CellScan load() {
+        try {
+            return (CellScan) Class.forName("jump61.VectorCellScan")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return new CellScan();
+        }
+    }
+
+    /** Number of neighbors of an interior square. */
+    private static final int MAX_CAPACITY = 4;
+
+    /** The CellScan returned by get. */
+    private static final CellScan INSTANCE = load();
+
+    /** The last limits computed for the first and last rows, and for
+     *  the other rows.  Each is replaced when the board size changes; a
+     *  race between threads at worst computes one twice. */
+    private volatile byte[] _rimLimits, _innerLimits;
+}
@@ -0,0 +1,493 @@
+package jump61;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/** Storage for the packed squares of an N x N Board (see Board.pack), one
+ *  byte per square in row-major order.  The usual store is an ordinary
+ *  array.  For boards too big for the heap, the squares may instead be
+ *  kept off the heap in a direct buffer, or in a memory-mapped file,
+ *  which holds a short header giving the board's size followed by the
+ *  squares, so that a board may be checkpointed and later reopened as it
+ *  was, without reading or writing it square by square.  Finally, a
+ *  persistent store keeps its squares in a shallow tree of small chunks,
+ *  which it shares with its snapshots, copying chunks only as they
+ *  change, so that a board may hand out frozen copies of itself at
+ *  little cost.
+ *  @author Zeline Wang
+ */
+abstract class CellStore {
+
+    /** Return a store for an N x N board on the heap. */
+    static CellStore onHeap(int N) {
+        return new Heap(N);
+    }
+
+    /** Return a store for an N x N board in a direct buffer, outside the
+     *  heap. */
+    static CellStore offHeap(int N) {
+        return new Buffer(N, ByteBuffer.allocateDirect(area(N)));
+    }
+
+    /** Return a store for an N x N board mapped to FILE, which is created
+     *  if need be, and whose previous contents are discarded.  The
+     *  squares are left for the caller to fill in. */
+    static CellStore create(Path file, int N) throws IOException {
+        MappedByteBuffer buffer = map(file, area(N), true);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(Integer.BYTES, N);
+        return new Mapped(N, buffer);
+    }
+
+    /** Return the store mapped to FILE, as left by a previous create or
+     *  open, with its contents as last written. */
+    static CellStore open(Path file) throws IOException {
+        long length = Files.size(file);
+        MappedByteBuffer header = length < HEADER ? null
+            : map(file, 0, false);
+        if (header == null || header.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a board file");
+        }
+        int N = header.getInt(Integer.BYTES);
+        if (length != HEADER + (long) N * N) {
+            throw new IOException(file + " is truncated");
+        }
+        return new Mapped(N, map(file, area(N), false));
+    }
+
+    /** Return a persistent store (see snapshot) holding the same squares
+     *  as CELLS. */
+    static CellStore persistent(CellStore cells) {
+        return new Persistent(cells);
+    }
+
+    /** A store for an N x N board. */
+    CellStore(int N) {
+        _size = N;
+        _length = area(N);
+    }
+
+    /** Return the number of squares on a side. */
+    final int size() {
+        return _size;
+    }
+
+    /** Return the number of squares. */
+    final int length() {
+        return _length;
+    }
+
+    /** Return the packed value of square #N. */
+    abstract byte get(int n);
+
+    /** Set square #N to packed value V. */
+    abstract void set(int n, byte v);
+
+    /** Set every square to packed value V. */
+    void fill(byte v) {
+        for (int n = 0; n < _length; n += 1) {
+            set(n, v);
+        }
+    }
+
+    /** Set my squares #START to #END - 1 to those of CELLS. */
+    void copy(CellStore cells, int start, int end) {
+        for (int n = start; n < end; n += 1) {
+            set(n, cells.get(n));
+        }
+    }
+
+    /** Return true iff I hold the same squares as OTHER. */
+    boolean contentEquals(CellStore other) {
+        return CellScan.get().equal(this, other);
+    }
+
+    /** Return a buffer whose bytes #0 to #length()-1 are my squares, for
+     *  scans that read many squares at once.  Its position and limit
+     *  are not to be changed. */
+    abstract ByteBuffer view();
+
+    /** Return true iff snapshot takes constant time. */
+    boolean persistent() {
+        return false;
+    }
+
+    /** Return true iff my squares are kept on the heap. */
+    boolean onHeap() {
+        return false;
+    }
+
+    /** Return a store holding my current squares that no later change to
+     *  me affects, and that cannot itself be changed.  Takes constant
+     *  time for a persistent store (after which each change to a square
+     *  takes time proportional to the log of my length), and time
+     *  proportional to my length for others. */
+    CellStore snapshot() {
+        return new Persistent(this).snapshot();
+    }
+
+    /** Make sure that my contents, if kept in a file, are all written to
+     *  it, so that open will find them after a crash. */
+    void force() {
+    }
+
+    /** Return the number of squares of an N x N board, which must fit in
+     *  a file mapping along with the header. */
+    private static int area(int N) {
+        if (N < 0 || (long) N * N > Integer.MAX_VALUE - HEADER) {
+            throw new IllegalArgumentException("bad board size: " + N);
+        }
+        return N * N;
+    }
+
+    /** Return a read/write mapping of the header of FILE, followed by
+     *  LENGTH squares, extending FILE if needed, and creating it first
+     *  if CREATE. */
+    private static MappedByteBuffer map(Path file, int length,
+                                        boolean create) throws IOException {
+        try (FileChannel channel =
+             create ? FileChannel.open(file, CREATE, TRUNCATE_EXISTING,
+                                       READ, WRITE)
+             : FileChannel.open(file, READ, WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                               HEADER + length);
+        }
+    }
+
+    /** A store kept in an array on the heap. */
+    private static final class Heap extends CellStore {
+
+        /** A store for an N x N board. */
+        Heap(int N) {
+            super(N);
+            _cells = new byte[length()];
+            _view = ByteBuffer.wrap(_cells);
+        }
+
+        @Override
+        byte get(int n) {
+            return _cells[n];
+        }
+
+        @Override
+        void set(int n, byte v) {
+            _cells[n] = v;
+        }
+
+        @Override
+        void fill(byte v) {
+            Arrays.fill(_cells, v);
+        }
+
+        @Override
+        boolean contentEquals(CellStore other) {
+            if (other instanceof Heap) {
+                return Arrays.equals(_cells, ((Heap) other)._cells);
+            }
+            return super.contentEquals(other);
+        }
+
+        @Override
+        ByteBuffer view() {
+            return _view;
+        }
+
+        @Override
+        boolean onHeap() {
+            return true;
+        }
+
+        /** The squares. */
+        private final byte[] _cells;
+        /** A buffer wrapping _cells. */
+        private final ByteBuffer _view;
+    }
+
+    /** A store kept in a buffer, starting at its position OFFSET. */
+    private static class Buffer extends CellStore {
+
+        /** A store for an N x N board at the start of BUFFER. */
+        Buffer(int N, ByteBuffer buffer) {
+            this(N, buffer, 0);
+        }
+
+        /** A store for an N x N board in BUFFER, starting at OFFSET. */
+        Buffer(int N, ByteBuffer buffer, int offset) {
+            super(N);
+            _buffer = buffer;
+            _offset = offset;
+            _view = buffer.slice(offset, length());
+        }
+
+        @Override
+        byte get(int n) {
+            return _buffer.get(_offset + n);
+        }
+
+        @Override
+        void set(int n, byte v) {
+            _buffer.put(_offset + n, v);
+        }
+
+        @Override
+        ByteBuffer view() {
+            return _view;
+        }
+
+        /** The buffer holding my squares. */
+        private final ByteBuffer _buffer;
+        /** Position of square #0 in _buffer. */
+        private final int _offset;
+        /** The part of _buffer holding my squares. */
+        private final ByteBuffer _view;
+    }
+
+    /** A store in a memory-mapped file, after its header. */
+    private static final class Mapped extends Buffer {
+
+        /** A store for an N x N board in BUFFER, which maps its file. */
+        Mapped(int N, MappedByteBuffer buffer) {
+            super(N, buffer, HEADER);
+            _mapping = buffer;
+        }
+
+        @Override
+        void force() {
+            _mapping.force();
+        }
+
+        /** The mapping of my file. */
+        private final MappedByteBuffer _mapping;
+    }
+
+    /** A persistent store.  Squares are kept in a tree whose leaves are
+     *  chunks of CHUNK consecutive squares, and whose inner nodes each
+     *  have up to CHUNK children, so that the path to a square is at
+     *  most five nodes long even on the largest board.  Nodes are tagged
+     *  with the epoch in which they were made.  A snapshot shares my
+     *  root and starts a new epoch, after which any node from an earlier
+     *  epoch is copied before it is changed, along with the path to it;
+     *  the snapshot still sees the old nodes. */
+    private static final class Persistent extends CellStore {
+
+        /** A store holding the squares of CELLS. */
+        Persistent(CellStore cells) {
+            super(cells.size());
+            int levels = 0;
+            while ((long) CHUNK << (levels * BITS) < length()) {
+                levels += 1;
+            }
+            _shift = levels * BITS;
+            _root = build(cells, _shift, 0);
+        }
+
+        /** A frozen store sharing the squares of STORE. */
+        private Persistent(Persistent store) {
+            super(store.size());
+            _shift = store._shift;
+            _root = store._root;
+            _epoch = -1;
+        }
+
+        @Override
+        byte get(int n) {
+            Node node = _root;
+            for (int shift = _shift; shift > 0; shift -= BITS) {
+                node = node._kids[(n >>> shift) & MASK];
+            }
+            return node._cells[n & MASK];
+        }
+
+        @Override
+        void set(int n, byte v) {
+            if (_epoch < 0) {
+                throw new UnsupportedOperationException("frozen board");
+            }
+            if (_root._epoch != _epoch) {
+                _root = _root.copy(_epoch);
+            }
+            Node node = _root;
+            for (int shift = _shift; shift > 0; shift -= BITS) {
+                int k = (n >>> shift) & MASK;
+                Node kid = node._kids[k];
+                if (kid._epoch != _epoch) {
+                    kid = node._kids[k] = kid.copy(_epoch);
+                }
+                node = kid;
+            }
+            node._cells[n & MASK] = v;
+        }
+
+        @Override
+        void fill(byte v) {
+            for (int n = 0; n < length(); n += CHUNK) {
+                Arrays.fill(leaf(n), v);
+            }
+        }
+
+        /** Copies a chunk at a time, finding each chunk's leaf once. */
+        @Override
+        void copy(CellStore cells, int start, int end) {
+            for (int n = start; n < end; n = (n | MASK) + 1) {
+                byte[] chunk = leaf(n);
+                for (int i = n; i < end && i <= (n | MASK); i += 1) {
+                    chunk[i & MASK] = cells.get(i);
+                }
+            }
+        }
+
+        @Override
+        boolean contentEquals(CellStore other) {
+            if (other instanceof Persistent
+                && ((Persistent) other)._root == _root) {
+                return true;
+            }
+            if (length() != other.length()) {
+                return false;
+            }
+            for (int n = 0; n < length(); n += 1) {
+                if (get(n) != other.get(n)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Return a copy of my squares: I have no buffer of my own.  A
+         *  frozen store never changes, so its copy is made once. */
+        @Override
+        ByteBuffer view() {
+            ByteBuffer result = _view;
+            if (result == null) {
+                byte[] copy = new byte[length()];
+                for (int n = 0; n < length(); n += 1) {
+                    copy[n] = get(n);
+                }
+                result = ByteBuffer.wrap(copy);
+                if (_epoch < 0) {
+                    _view = result;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        boolean persistent() {
+            return true;
+        }
+
+        @Override
+        boolean onHeap() {
+            return true;
+        }
+
+        @Override
+        CellStore snapshot() {
+            if (_epoch < 0) {
+                return this;
+            }
+            Persistent result = new Persistent(this);
+            _epoch += 1;
+            return result;
+        }
+
+        /** Return the chunk of the leaf holding square #N, making it
+         *  writable in this epoch. */
+        private byte[] leaf(int n) {
+            set(n, get(n));
+            Node node = _root;
+            for (int shift = _shift; shift > 0; shift -= BITS) {
+                node = node._kids[(n >>> shift) & MASK];
+            }
+            return node._cells;
+        }
+
+        /** Return a new subtree holding the squares of CELLS numbered from
+         *  BASE, whose root indexes its children by bits SHIFT and up of
+         *  the square number. */
+        private Node build(CellStore cells, int shift, int base) {
+            if (shift == 0) {
+                byte[] chunk = new byte[CHUNK];
+                for (int i = 0; i < CHUNK && base + i < length(); i += 1) {
+                    chunk[i] = cells.get(base + i);
+                }
+                return new Node(_epoch, null, chunk);
+            }
+            Node[] kids = new Node[CHUNK];
+            for (int k = 0; k < CHUNK; k += 1) {
+                int start = base + (k << shift);
+                if (start >= length() || start < base) {
+                    break;
+                }
+                kids[k] = build(cells, shift - BITS, start);
+            }
+            return new Node(_epoch, kids, null);
+        }
+
+        /** Number of bits of a square number used at each level. */
+        private static final int BITS = 5;
+        /** Squares in a leaf, and children of an inner node. */
+        private static final int CHUNK = 1 << BITS;
+        /** Mask extracting the index within a node. */
+        private static final int MASK = CHUNK - 1;
+
+        /** The shift extracting the index within my root from a square
+         *  number: BITS times the number of inner levels. */
+        private final int _shift;
+        /** The root of my tree. */
+        private Node _root;
+        /** The current epoch, or -1 if I am frozen. */
+        private long _epoch;
+        /** The copy of my squares returned by view, if I am frozen and
+         *  it has been made. */
+        private volatile ByteBuffer _view;
+    }
+
+    /** A node of the tree of a Persistent store: a leaf, holding a chunk
+     *  of squares, or an inner node, holding its children. */
+    private static final class Node {
+
+        /** A node made in EPOCH with children KIDS or squares CELLS (one
+         *  of which is null). */
+        Node(long epoch, Node[] kids, byte[] cells) {
+            _epoch = epoch;
+            _kids = kids;
+            _cells = cells;
+        }
+
+        /** Return a copy of me made in EPOCH, sharing my children. */
+        Node copy(long epoch) {
+            return new Node(epoch, _kids == null ? null : _kids.clone(),
+                            _cells == null ? null : _cells.clone());
+        }
+
+        /** The epoch in which I was made. */
+        private final long _epoch;
+        /** My children, or null if I am a leaf. */
+        private final Node[] _kids;
+        /** My squares, or null if I am an inner node. */
+        private final byte[] _cells;
+    }
+
+    /** First word of a board file. */
+    private static final int MAGIC = 0x4a363142;
+
+    /** Bytes in a board file before square #0: MAGIC and the size. */
+    private static final int HEADER = 2 * Integer.BYTES;
+
+    /** Number of squares on a side. */
+    private final int _size;
+
+    /** Number of squares. */
+    private final int _length;
+}
@@ -18,11 +18,21 @@ class ConstantBoard extends Board {
         return this;
     }
 
+    @Override
+    Board snapshot() {
+        return _board.snapshot();
+    }
+
     @Override
     int size() {
         return _board.size();
     }
 
+    @Override
+    Topology topology() {
+        return _board.topology();
+    }
+
     @Override
     Square get(int n) {
         return _board.get(n);
@@ -53,6 +63,26 @@ class ConstantBoard extends Board {
         return _board.numOfSide(color);
     }
 
+    @Override
+    int spotsOfSide(Side color) {
+        return _board.spotsOfSide(color);
+    }
+
+    @Override
+    int criticalOfSide(Side color) {
+        return _board.criticalOfSide(color);
+    }
+
+    @Override
+    int rimOfSide(Side color) {
+        return _board.rimOfSide(color);
+    }
+
+    @Override
+    long hashKey() {
+        return _board.hashKey();
+    }
+
     @Override
     public boolean equals(Object obj) {
         return _board.equals(obj);
@@ -94,6 +124,10 @@ class ConstantBoard extends Board {
     void undo() {
     }
 
+    @Override
+    void redo() {
+    }
+
     /** Board to which all operations are delegated. */
     private Board _board;
 
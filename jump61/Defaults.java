@@ -14,4 +14,17 @@ class Defaults {
     /** Maximum number of squares on the side of a game board. */
     static final int MAX_BOARD_SIZE = 10;
 
+    /** Maximum number of squares on the side of a large board (see the
+     *  size command), which has no undo history. */
+    static final int MAX_LARGE_BOARD_SIZE = 2000;
+
+    /** Default size in megabytes of the AIs' transposition table. */
+    static final int TABLE_SIZE = 16;
+
+    /** Default time limit, in milliseconds, of the solve command. */
+    static final long SOLVE_TIME = 10_000;
+
+    /** Most threads an automated player may search with. */
+    static final int MAX_THREADS = 64;
+
 }
@@ -3,7 +3,9 @@ package jump61;
 import ucb.gui2.TopLevel;
 import ucb.gui2.LayoutSpec;
 
+import java.util.Formatter;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
 
 import static jump61.Side.*;
 
@@ -146,6 +148,42 @@ class Display extends TopLevel implements View, CommandSource, Reporter {
         showMessage(String.format(format, args), "Error", "error");
     }
 
+    /** Shows at most MESSAGE_LIMIT characters of the message, which may
+     *  be far more than a dialog can usefully hold. */
+    @Override
+    public void write(Consumer<Formatter> body) {
+        StringBuilder text = new StringBuilder();
+        Appendable limited = new Appendable() {
+            @Override
+            public Appendable append(CharSequence s) {
+                return append(s, 0, s.length());
+            }
+
+            @Override
+            public Appendable append(CharSequence s, int start, int end) {
+                int room = MESSAGE_LIMIT - text.length();
+                text.append(s, start, Math.min(end, start + room));
+                return this;
+            }
+
+            @Override
+            public Appendable append(char c) {
+                if (text.length() < MESSAGE_LIMIT) {
+                    text.append(c);
+                }
+                return this;
+            }
+        };
+        body.accept(new Formatter(limited));
+        if (text.length() == MESSAGE_LIMIT) {
+            text.append("...");
+        }
+        showMessage(text.toString(), "", "information");
+    }
+
+    /** Most characters of a message shown by write. */
+    static final int MESSAGE_LIMIT = 10000;
+
     /** Time interval in msec to wait after a board update. */
     static final long BOARD_UPDATE_INTERVAL = 50;
 
@@ -1,5 +1,8 @@
 package jump61;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 import static jump61.Side.*;
 import static jump61.GameException.error;
 import static jump61.Utils.*;
@@ -14,9 +17,10 @@ class Game {
 
     /** A list of all commands. */
     private static final String[] COMMAND_NAMES = {
-        "auto", "board", "clear", "dump", "help", "manual",
-        "new", "q", "quiet", "quit",
-        "seed", "set", "size", "start", "verbose",
+        "auto", "board", "clear", "dump", "endgame", "help", "manual",
+        "n", "new", "nodes", "opening", "q", "quiet", "quit", "redo",
+        "search", "seed", "set", "size", "solve", "start", "table",
+        "threads", "time", "undo", "verbose",
     };
 
     /** A new Game that takes command/move input from INP, logs
@@ -32,6 +36,9 @@ class Game {
         _seed = (long) (Math.random() * Long.MAX_VALUE);
 
         _board = new Board(Defaults.BOARD_SIZE);
+        _transpositions =
+            new TranspositionTable(Defaults.TABLE_SIZE,
+                                   TranspositionTable.Replacement.DEPTH);
         _readonlyBoard = new ConstantBoard(_board);
         _board.setNotifier((b) -> _view.update(b));
     }
@@ -42,9 +49,32 @@ class Game {
         return _readonlyBoard;
     }
 
+    /** Returns the transposition table used by AIs in this game.  It
+     *  persists from move to move, and is cleared for each new game. */
+    TranspositionTable transpositions() {
+        return _transpositions;
+    }
+
+    /** Returns the opening book used by AIs in this game, or null if
+     *  none. */
+    OpeningBook openingBook() {
+        return _book;
+    }
+
+    /** Returns the endgame tablebase used by AIs in this game, or null if
+     *  none. */
+    Tablebase tablebase() {
+        return _tablebase;
+    }
+
+    /** Returns the search settings for automated players of COLOR. */
+    SearchParams searchParams(Side color) {
+        return _searchParams[color.ordinal()];
+    }
+
     /** Return true iff the current game is not over. */
     boolean gameInProgress() {
-        return _board.getWinner() == null;
+        return !_board.isTerminal();
     }
 
     /** Play a session of Jump61.  This may include multiple games,
@@ -62,7 +92,7 @@ class Game {
         while (_exit < 0) {
             String cmnd;
             _view.update(_board);
-            if (_board.getWinner() == null) {
+            if (!_board.isTerminal()) {
                 winnerAnnounced = false;
                 try {
                     executeCommand(getPlayer(_board.whoseMove()).getMove());
@@ -147,8 +177,27 @@ class Game {
 
     /** Make the player of COLOR an AI for subsequent moves. */
     private void setAuto(Side color) {
-        setPlayer(color, new AI(this, color, _seed));
-        _seed += 1;
+        setAuto(color, "alphabeta");
+    }
+
+    /** Make the player of COLOR an automated player of the kind named
+     *  KIND for subsequent moves: only "alphabeta", for an AI, so far.
+     *  It cannot play on a large board (see setSize): its search needs
+     *  memory in proportion to the number of squares for each ply, and
+     *  would not finish in any case. */
+    private void setAuto(Side color, String kind) {
+        if (_board.size() > Defaults.MAX_BOARD_SIZE) {
+            throw error("automated players cannot play on boards larger "
+                        + "than %d squares on a side",
+                        Defaults.MAX_BOARD_SIZE);
+        }
+        switch (kind) {
+        case "alphabeta":
+            setPlayer(color, new AI(this, color));
+            break;
+        default:
+            throw error("unknown kind of automated player: %s", kind);
+        }
     }
 
     /** Make the player of COLOR take manual input from the user for
@@ -170,15 +219,51 @@ class Game {
     /** Clear the board to its initial state. */
     void clear() {
         _board.clear(_board.size());
+        _transpositions.clear();
+    }
+
+    /** Take back the last move, if any.  When one side is played
+     *  manually and the other automatically, keeps going back to a
+     *  position in which the manual player is to move, since otherwise
+     *  the automated player would simply move again. */
+    private void undo() {
+        _board.undo();
+        while (isManual(_board.whoseMove().opposite())
+               && !isManual(_board.whoseMove()) && _board.canUndo()) {
+            _board.undo();
+        }
+    }
+
+    /** Replay the last move taken back by undo, if any, together with any
+     *  automated replies that were taken back with it. */
+    private void redo() {
+        _board.redo();
+        while (isManual(_board.whoseMove().opposite())
+               && !isManual(_board.whoseMove()) && _board.canRedo()) {
+            _board.redo();
+        }
+    }
+
+    /** Return true iff the player of COLOR takes manual input. */
+    private boolean isManual(Side color) {
+        return getPlayer(color) instanceof HumanPlayer;
     }
 
     /** Print the current board using standard board-dump format. */
     private void dump() {
+        if (_board.size() > Defaults.MAX_BOARD_SIZE) {
+            _reporter.write(_board::dump);
+            return;
+        }
         _reporter.msg(_board.toString());
     }
 
     /** Print a board with row/column numbers. */
     private void printBoard() {
+        if (_board.size() > Defaults.MAX_BOARD_SIZE) {
+            _reporter.write(_board::display);
+            return;
+        }
         _reporter.msg(_board.toDisplayString());
     }
 
@@ -207,13 +292,178 @@ class Game {
     }
 
     /** Stop any current game and set the board to an empty N x N board
-     *  with numMoves() == 0.  Requires 2 <= N <= 10. */
-    private void setSize(int n) {
+     *  with numMoves() == 0.  Requires 2 <= N <= Defaults.MAX_BOARD_SIZE,
+     *  or, if LARGE, 2 <= N <= Defaults.MAX_LARGE_BOARD_SIZE.  A board
+     *  larger than Defaults.MAX_BOARD_SIZE is played by two manual
+     *  players (see setAuto). */
+    private void setSize(int n, boolean large) {
         log("size %d", n);
-        if (n < 2 || n > 10) {
-            throw error("size must be between 2 and 10");
+        int limit =
+            large ? Defaults.MAX_LARGE_BOARD_SIZE : Defaults.MAX_BOARD_SIZE;
+        if (n < 2 || n > limit) {
+            throw error("size must be between 2 and %d", limit);
         }
         _board.clear(n);
+        _transpositions.clear();
+        if (n > Defaults.MAX_BOARD_SIZE) {
+            setManual(RED);
+            setManual(BLUE);
+        }
+    }
+
+    /** Replace the AIs' transposition table with one of about MEGABYTES
+     *  megabytes, using the replacement policy named POLICY ("depth" or
+     *  "always"), or the current policy if POLICY is null.  MEGABYTES may
+     *  be at most half the memory the JVM may use, since the old table
+     *  is still in use while the new one is allocated. */
+    private void setTable(int megabytes, String policy) {
+        TranspositionTable.Replacement replacement;
+        long limit = Runtime.getRuntime().maxMemory() >> 21;
+        if (megabytes < 1) {
+            throw error("table size must be at least 1 megabyte");
+        } else if (megabytes > limit) {
+            throw error("table size must be at most %d megabytes", limit);
+        }
+        if (policy == null) {
+            replacement = _transpositions.policy();
+        } else {
+            try {
+                replacement =
+                    TranspositionTable.Replacement.valueOf(
+                        policy.toUpperCase());
+            } catch (IllegalArgumentException excp) {
+                throw error("unknown replacement policy: %s", policy);
+            }
+        }
+        try {
+            _transpositions = new TranspositionTable(megabytes, replacement);
+        } catch (OutOfMemoryError excp) {
+            throw error("not enough memory for a table of %d megabytes",
+                        megabytes);
+        }
+    }
+
+    /** Have AIs take their moves from the opening book in FILE while it
+     *  covers the position, or if FILE is "off", stop using a book. */
+    private void setOpeningBook(String file) {
+        if (file.equalsIgnoreCase("off")) {
+            _book = null;
+            return;
+        }
+        try {
+            _book = OpeningBook.open(Paths.get(file));
+        } catch (IOException excp) {
+            throw error("cannot read opening book: %s", excp.getMessage());
+        }
+    }
+
+    /** Have AIs take their moves from the tablebase in FILE on the boards
+     *  it covers, or if FILE is "off", stop using a tablebase. */
+    private void setTablebase(String file) {
+        if (file.equalsIgnoreCase("off")) {
+            _tablebase = null;
+            return;
+        }
+        try {
+            _tablebase = Tablebase.open(Paths.get(file));
+        } catch (IOException excp) {
+            throw error("cannot read tablebase: %s", excp.getMessage());
+        }
+    }
+
+    /** Limit automated players of COLOR to about LIMIT of time per move
+     *  (0 for no limit), as for toMillis. */
+    private void setTimeLimit(String color, String limit) {
+        searchParams(toSide(color)).setTimeLimit(toMillis(limit));
+    }
+
+    /** Return the number of milliseconds denoted by LIMIT: a number of
+     *  milliseconds, optionally followed by "ms", or a number of seconds
+     *  followed by "s". */
+    private long toMillis(String limit) {
+        long millis;
+        if (limit.endsWith("ms")) {
+            millis = toLong(limit.substring(0, limit.length() - 2));
+        } else if (limit.endsWith("s")) {
+            millis = 1000 * toLong(limit.substring(0, limit.length() - 1));
+        } else {
+            millis = toLong(limit);
+        }
+        if (millis < 0) {
+            throw error("time limit may not be negative");
+        }
+        return millis;
+    }
+
+    /** Try to prove which side wins the current position, searching for
+     *  about MILLIS milliseconds and at most NODES positions (0 for no
+     *  limit), and report the winner and the principal line of the
+     *  proof, or that the search ran out first. */
+    private void solve(long millis, long nodes) {
+        if (nodes < 0) {
+            throw error("node limit may not be negative");
+        }
+        if (_board.size() > Defaults.MAX_BOARD_SIZE) {
+            throw error("can only solve boards of at most %d squares "
+                        + "on a side", Defaults.MAX_BOARD_SIZE);
+        }
+        if (_prover == null) {
+            _prover = new Prover(Defaults.TABLE_SIZE);
+        }
+        SearchParams limits = new SearchParams();
+        limits.setTimeLimit(millis);
+        limits.setNodeLimit(nodes);
+        if (_board.isTerminal()) {
+            announceWinner();
+            return;
+        }
+        Side winner = _prover.prove(_board, limits);
+        if (winner == null) {
+            _reporter.msg("Unknown after %d positions.", _prover.nodes());
+            return;
+        }
+        Board board = new Board(_board);
+        StringBuilder line = new StringBuilder();
+        for (int move : _prover.line()) {
+            line.append(line.length() == 0 ? "" : ", ")
+                .append(board.moveString(move));
+            board.makeMove(board.whoseMove(), move);
+        }
+        if (!board.isTerminal()) {
+            line.append(line.length() == 0 ? "..." : ", ...");
+        }
+        _reporter.msg("%s wins (%d positions): %s",
+                      winner.toCapitalizedString(), _prover.nodes(), line);
+    }
+
+    /** Limit automated players of COLOR to searching NODES game-tree
+     *  nodes per move (0 for no limit). */
+    private void setNodeLimit(String color, long nodes) {
+        if (nodes < 0) {
+            throw error("node limit may not be negative");
+        }
+        searchParams(toSide(color)).setNodeLimit(nodes);
+    }
+
+    /** Have automated players of COLOR divide their search among threads
+     *  in the way named MODE ("split" or "smp"). */
+    private void setSearchMode(String color, String mode) {
+        SearchParams.Mode searchMode;
+        try {
+            searchMode = SearchParams.Mode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException excp) {
+            throw error("unknown search mode: %s", mode);
+        }
+        searchParams(toSide(color)).setMode(searchMode);
+    }
+
+    /** Have automated players of COLOR search with THREADS threads. */
+    private void setThreads(String color, int threads) {
+        if (threads < 1 || threads > Defaults.MAX_THREADS) {
+            throw error("number of threads must be between 1 and %d",
+                        Defaults.MAX_THREADS);
+        }
+        searchParams(toSide(color)).setThreads(threads);
     }
 
     /** Return the full, lower-case command name that uniquely fits
@@ -257,7 +507,8 @@ class Game {
             case "#": case "":
                 break;
             case "auto":
-                setAuto(toSide(parts[1]));
+                setAuto(toSide(parts[1]),
+                        parts.length > 2 ? parts[2] : "alphabeta");
                 break;
             case "board":
                 printBoard();
@@ -265,21 +516,36 @@ class Game {
             case "dump":
                 dump();
                 break;
+            case "endgame":
+                setTablebase(cmnd.trim().split("\\s+")[1]);
+                break;
             case "help":
                 help();
                 break;
             case "manual":
                 setManual(toSide(parts[1]));
                 break;
-            case "new":
+            case "new": case "n":
                 clear();
                 break;
+            case "nodes":
+                setNodeLimit(parts[1], toLong(parts[2]));
+                break;
+            case "opening":
+                setOpeningBook(cmnd.trim().split("\\s+")[1]);
+                break;
             case "quiet":
                 _verbose = false;
                 break;
             case "quit": case "q":
                 _exit = 0;
                 break;
+            case "redo":
+                redo();
+                break;
+            case "search":
+                setSearchMode(parts[1], parts[2]);
+                break;
             case "seed":
                 setSeed(toLong(parts[1]));
                 break;
@@ -288,7 +554,27 @@ class Game {
                          parts[4]);
                 break;
             case "size":
-                setSize(toInt(parts[1]));
+                if (parts.length > 2 && !parts[2].equals("large")) {
+                    throw error("unknown size option: %s", parts[2]);
+                }
+                setSize(toInt(parts[1]), parts.length > 2);
+                break;
+            case "solve":
+                solve(parts.length > 1 ? toMillis(parts[1])
+                      : Defaults.SOLVE_TIME,
+                      parts.length > 2 ? toLong(parts[2]) : 0);
+                break;
+            case "table":
+                setTable(toInt(parts[1]), parts.length > 2 ? parts[2] : null);
+                break;
+            case "threads":
+                setThreads(parts[1], toInt(parts[2]));
+                break;
+            case "time":
+                setTimeLimit(parts[1], parts[2]);
+                break;
+            case "undo":
+                undo();
                 break;
             case "verbose":
                 _verbose = true;
@@ -332,6 +618,14 @@ class Game {
 
     /** The board on which I record all moves. */
     private final Board _board;
+    /** Transposition table shared by the AIs. */
+    private TranspositionTable _transpositions;
+    /** Opening book used by the AIs, or null. */
+    private OpeningBook _book;
+    /** Endgame tablebase used by the AIs, or null. */
+    private Tablebase _tablebase;
+    /** Prover used by the solve command, or null until first needed. */
+    private Prover _prover;
     /** A readonly view of _board. */
     private final Board _readonlyBoard;
     /** Displayer of boards. */
@@ -351,6 +645,11 @@ class Game {
      *  indicates that the session is not over. */
     private int _exit;
 
+    /** Search settings for automated players, indexed by color. */
+    private final SearchParams[] _searchParams = {
+        new SearchParams(), new SearchParams(), new SearchParams()
+    };
+
     /** Current players, indexed by color (RED, BLUE). */
     private final Player[] _players = new Player[Side.values().length];
 
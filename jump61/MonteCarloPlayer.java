@@ -0,0 +1,471 @@
+package jump61;
+
+import java.util.Arrays;
+
+import static jump61.Side.*;
+
+/** An automated Player that chooses its moves by Monte Carlo tree search
+ *  with the UCT selection rule.  Each iteration descends the search tree
+ *  from the current position, at each node taking the child with the
+ *  best score plus an exploration bonus that shrinks as the child is
+ *  visited, adds the children of the first node reached that has been
+ *  visited before, plays a few random moves from there, and credits the
+ *  result, as estimated by Searcher.staticEval, to every node on the way
+ *  down.  Because random play is a poor guide in a game decided by
+ *  chain reactions, a child's score mixes its mean result with its
+ *  minimax value, backed up from the evaluations of the leaves below it
+ *  ("implicit minimax").  The move played is the one searched most
+ *  often.
+ *
+ *  Nodes are not objects, but slots in parallel arrays, a node's
+ *  children occupying consecutive slots, so that a search allocates
+ *  nothing but the occasional larger arrays.  The arrays start small
+ *  and double as the tree needs them, up to a capacity; once that is
+ *  reached, the tree stops growing, and further iterations only refine
+ *  the statistics of the nodes it has.
+ *  The tree is kept from one move to the next: if the position at my
+ *  next move is one already in the tree (as it is unless the game was
+ *  changed by something other than my move and my opponent's reply), the
+ *  search resumes from that node, and only its subtree is kept.
+ *
+ *  A search is limited by the time and node limits of my side's
+ *  SearchParams, the latter counting playouts; with neither, by
+ *  PLAYOUTS playouts.
+ *
+ *  This player is not offered by the auto command: at equal time per
+ *  move it loses nearly every game to the AI (see 'java jump61.Benchmark
+ *  match'), and is kept for experiment.
+ *  @author Zeline Wang
+ */
+class MonteCarloPlayer extends Player {
+
+    /** Number of playouts per move when neither time nor nodes are
+     *  limited. */
+    static final int PLAYOUTS = 20000;
+
+    /** A player of COLOR in GAME, using SEED to choose random moves. */
+    MonteCarloPlayer(Game game, Side color, long seed) {
+        this(game, color, seed, CAPACITY);
+    }
+
+    /** A player of COLOR in GAME, using SEED to choose random moves, and
+     *  keeping a tree of at most CAPACITY nodes. */
+    MonteCarloPlayer(Game game, Side color, long seed, int capacity) {
+        super(game, color);
+        _playout = new Playout(seed);
+        _capacity = capacity;
+    }
+
+    @Override
+    String getMove() {
+        Board board = getBoard();
+        assert getSide() == board.whoseMove();
+        int choice = findMove(board, getGame().searchParams(getSide()));
+        getGame().reportMove(board.row(choice), board.col(choice));
+        return String.format("%d %d", board.row(choice), board.col(choice));
+    }
+
+    /** Return a move for the player to move in POSITION, which must not
+     *  be over, searching as limited by PARAMS. */
+    int findMove(Board position, SearchParams params) {
+        SearchBudget budget;
+        if (params.limited()) {
+            budget = new SearchBudget(params);
+        } else {
+            SearchParams playouts = new SearchParams();
+            playouts.setNodeLimit(PLAYOUTS);
+            budget = new SearchBudget(playouts);
+        }
+        start(position);
+        long start = System.nanoTime();
+        int iterations = 0;
+        do {
+            iterate();
+            iterations += 1;
+        } while (!budget.charge(1));
+        int choice = bestMove();
+        Utils.debug(1, "%s: %s after %d playouts (%d reused), %d nodes, "
+                    + "%d ms", position.whoseMove(),
+                    position.moveString(choice), iterations, _reused,
+                    _size, (System.nanoTime() - start) / 1_000_000);
+        return choice;
+    }
+
+    /** Return the board I search on, which holds the position of the
+     *  last search when none is in progress. */
+    Board board() {
+        return _board;
+    }
+
+    /** Prepare to search from POSITION, keeping the subtree of the node
+     *  for POSITION, if there is one within two moves of the current
+     *  root. */
+    private void start(Board position) {
+        long key = position.hashKey();
+        int area = position.size() * position.size();
+        if (_board == null || _board.size() != position.size()) {
+            _board = BitBoard.of(position);
+            _path = new int[area + 2];
+            _movers = new Side[area + 2];
+            _order = new int[area];
+        } else {
+            _board.copy(position);
+        }
+        if (_move == null) {
+            int length = Math.min(_capacity, INITIAL_CAPACITY);
+            _move = new int[length];
+            _first = new int[length];
+            _children = new int[length];
+            _visits = new int[length];
+            _wins = new float[length];
+            _value = new float[length];
+            _keys = new long[length];
+        }
+        _reused = 0;
+        int root = _size == 0 ? -1 : find(ROOT, key, 2);
+        if (root < 0) {
+            _size = 1;
+            clearNode(ROOT, -1, key, 0);
+        } else {
+            _reused = _visits[root];
+            keep(root);
+        }
+    }
+
+    /** Return a node within DEPTH moves of NODE whose position has hash
+     *  key KEY, or -1 if there is none. */
+    private int find(int node, long key, int depth) {
+        if (_keys[node] == key) {
+            return node;
+        }
+        if (depth > 0) {
+            for (int c = _first[node], end = c + _children[node];
+                 c < end; c += 1) {
+                int found = find(c, key, depth - 1);
+                if (found >= 0) {
+                    return found;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Make NODE the root, discarding all nodes not in its subtree.  The
+     *  subtree is copied, breadth first, into my spare arrays, which then
+     *  change places with the current ones.  Until a copied node's
+     *  children are copied, its _first entry is the node it was copied
+     *  from. */
+    private void keep(int node) {
+        int length = _move.length;
+        if (_spareMove == null || _spareMove.length != length) {
+            _spareMove = new int[length];
+            _spareFirst = new int[length];
+            _spareChildren = new int[length];
+            _spareVisits = new int[length];
+            _spareWins = new float[length];
+            _spareValue = new float[length];
+            _spareKeys = new long[length];
+        }
+        _spareFirst[ROOT] = node;
+        int size = 1;
+        for (int i = 0; i < size; i += 1) {
+            int old = _spareFirst[i];
+            _spareMove[i] = _move[old];
+            _spareVisits[i] = _visits[old];
+            _spareWins[i] = _wins[old];
+            _spareValue[i] = _value[old];
+            _spareKeys[i] = _keys[old];
+            _spareChildren[i] = _children[old];
+            _spareFirst[i] = _children[old] == 0 ? -1 : size;
+            for (int k = 0; k < _children[old]; k += 1) {
+                _spareFirst[size] = _first[old] + k;
+                size += 1;
+            }
+        }
+        _size = size;
+        int[] move = _move, first = _first, children = _children,
+            visits = _visits;
+        float[] wins = _wins, value = _value;
+        long[] keys = _keys;
+        _move = _spareMove;
+        _first = _spareFirst;
+        _children = _spareChildren;
+        _visits = _spareVisits;
+        _wins = _spareWins;
+        _value = _spareValue;
+        _keys = _spareKeys;
+        _spareMove = move;
+        _spareFirst = first;
+        _spareChildren = children;
+        _spareVisits = visits;
+        _spareWins = wins;
+        _spareValue = value;
+        _spareKeys = keys;
+    }
+
+    /** Perform one iteration of the search: select a path from the root,
+     *  expand its last node, play out a game from there, and record the
+     *  result along the path.  If the path is empty (the root could not
+     *  be expanded), the playout's first move is made here, so that
+     *  there is a token for undoing the playout. */
+    private void iterate() {
+        Board board = _board;
+        int node = ROOT;
+        int depth = 0;
+        int token = -1;
+        _path[0] = ROOT;
+        boolean expanded = false;
+        while (!board.isTerminal()) {
+            if (_children[node] == 0) {
+                if (expanded || _visits[node] == 0 && node != ROOT
+                    || !expand(node)) {
+                    break;
+                }
+                expanded = true;
+            }
+            node = select(node);
+            int t = play(node, depth);
+            token = token < 0 ? t : token;
+            depth += 1;
+            _path[depth] = node;
+        }
+        if (token < 0 && !board.isTerminal()) {
+            Side player = board.whoseMove();
+            token = board.makeMove(player,
+                                   board.randomMove(player,
+                                                    _playout.random()));
+        }
+        double red = playout();
+        for (int k = depth; k >= 0; k -= 1) {
+            int n = _path[k];
+            _visits[n] += 1;
+            if (k > 0) {
+                _wins[n] += _movers[k - 1] == RED ? red : 1 - red;
+            }
+            if (_children[n] > 0) {
+                back(n);
+            }
+        }
+        if (token >= 0) {
+            board.unmakeMove(token);
+        }
+    }
+
+    /** Make the move of NODE, DEPTH moves below the root, on my board,
+     *  and return the token for undoing it. */
+    private int play(int node, int depth) {
+        if (depth + 1 == _path.length) {
+            _path = Arrays.copyOf(_path, 2 * _path.length);
+            _movers = Arrays.copyOf(_movers, 2 * _movers.length);
+        }
+        Side player = _board.whoseMove();
+        _movers[depth] = player;
+        return _board.makeMove(player, _move[node]);
+    }
+
+    /** Return the child of NODE with the greatest UCT score: its mean
+     *  result, mixed with its minimax value, plus a bonus for being
+     *  seldom visited.  An unvisited child's mean result is taken to be
+     *  its value. */
+    private int select(int node) {
+        double logVisits = Math.log(_visits[node] + 1);
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = _first[node], end = c + _children[node];
+             c < end; c += 1) {
+            int visits = _visits[c];
+            double score = _value[c];
+            if (visits > 0) {
+                score = MINIMAX_WEIGHT * score
+                    + (1 - MINIMAX_WEIGHT) * _wins[c] / visits;
+            }
+            score += EXPLORATION * Math.sqrt(logVisits / (visits + 1));
+            if (score > bestScore) {
+                best = c;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /** Add the children of NODE, for each legal move in my board's
+     *  position, in random order, valuing each by the position after
+     *  its move.  Returns false if there is no room for them. */
+    private boolean expand(int node) {
+        Board board = _board;
+        Side player = board.whoseMove();
+        int count = 0;
+        for (int n = 0; n < _order.length; n += 1) {
+            if (board.isLegal(player, n)) {
+                int k = _playout.random().nextInt(count + 1);
+                _order[count] = _order[k];
+                _order[k] = n;
+                count += 1;
+            }
+        }
+        if (!reserve(_size + count)) {
+            return false;
+        }
+        _first[node] = _size;
+        _children[node] = count;
+        for (int k = 0; k < count; k += 1) {
+            int token = board.makeMove(player, _order[k]);
+            clearNode(_size, _order[k], board.hashKey(),
+                      score(board, player));
+            board.unmakeMove(token);
+            _size += 1;
+        }
+        back(node);
+        return true;
+    }
+
+    /** Make room for SIZE nodes in my arrays, doubling their length as
+     *  often as needed, and return true, or return false if SIZE is more
+     *  than my capacity. */
+    private boolean reserve(int size) {
+        if (size > _capacity) {
+            return false;
+        }
+        int length = _move.length;
+        if (size > length) {
+            while (length < size) {
+                length = (int) Math.min(_capacity, 2L * length);
+            }
+            _move = Arrays.copyOf(_move, length);
+            _first = Arrays.copyOf(_first, length);
+            _children = Arrays.copyOf(_children, length);
+            _visits = Arrays.copyOf(_visits, length);
+            _wins = Arrays.copyOf(_wins, length);
+            _value = Arrays.copyOf(_value, length);
+            _keys = Arrays.copyOf(_keys, length);
+        }
+        return true;
+    }
+
+    /** Set the value of NODE, which has children, to that of its best
+     *  child, for the player who made NODE's move. */
+    private void back(int node) {
+        float best = 0;
+        for (int c = _first[node], end = c + _children[node];
+             c < end; c += 1) {
+            best = Math.max(best, _value[c]);
+        }
+        _value[node] = 1 - best;
+    }
+
+    /** Make node #NODE an unvisited leaf reached by MOVE, whose position
+     *  has hash key KEY and value VALUE. */
+    private void clearNode(int node, int move, long key, double value) {
+        _move[node] = move;
+        _first[node] = -1;
+        _children[node] = 0;
+        _visits[node] = 0;
+        _wins[node] = 0;
+        _value[node] = (float) value;
+        _keys[node] = key;
+    }
+
+    /** Return the score of the position on BOARD for PLAYER: 1 if PLAYER
+     *  has won, 0 if PLAYER has lost, and otherwise PLAYER's chance of
+     *  winning as estimated from Searcher.staticEval. */
+    private static double score(Board board, Side player) {
+        if (board.isTerminal()) {
+            return board.getWinner() == player ? 1 : 0;
+        }
+        int value = Searcher.staticEval(board, 0);
+        if (player != RED) {
+            value = -value;
+        }
+        return 1 / (1 + Math.exp(-value / SCALE));
+    }
+
+    /** Play random moves on my board until the game is over, or for at
+     *  most PLAYOUT_LENGTH moves, and return its score for Red.  The
+     *  moves are left for iterate to undo. */
+    private double playout() {
+        _playout.play(_board, PLAYOUT_LENGTH);
+        return score(_board, RED);
+    }
+
+    /** Return the move of the most visited child of the root, or, if the
+     *  root could not be expanded, a random legal move. */
+    private int bestMove() {
+        if (_children[ROOT] == 0) {
+            return _board.randomMove(_board.whoseMove(), _playout.random());
+        }
+        int best = _first[ROOT];
+        for (int c = best, end = c + _children[ROOT]; c < end; c += 1) {
+            if (_visits[c] > _visits[best]) {
+                best = c;
+            }
+        }
+        return _move[best];
+    }
+
+    /** Default greatest number of nodes in my tree. */
+    private static final int CAPACITY = 1 << 18;
+
+    /** Number of nodes my arrays have room for at first. */
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    /** Most random moves in a playout. */
+    private static final int PLAYOUT_LENGTH = 4;
+
+    /** Difference in Searcher.staticEval that makes a win e (2.718...)
+     *  times as likely as a loss (see score). */
+    private static final double SCALE = 10;
+
+    /** Weight of a child's minimax value, as against its mean result, in
+     *  the UCT score. */
+    private static final double MINIMAX_WEIGHT = 0.5;
+
+    /** Weight of the exploration term in the UCT score. */
+    private static final double EXPLORATION = 0.3;
+
+    /** The root node. */
+    private static final int ROOT = 0;
+
+    /** Most nodes in my tree. */
+    private final int _capacity;
+    /** Number of nodes in use: slots 0 .. _size - 1. */
+    private int _size;
+    /** For each node, the move leading to it from its parent. */
+    private int[] _move;
+    /** For each node, its first child, or -1 if it has none. */
+    private int[] _first;
+    /** For each node, its number of children: 0 if not expanded. */
+    private int[] _children;
+    /** For each node, the number of playouts through it. */
+    private int[] _visits;
+    /** For each node, the number of those playouts won by the player who
+     *  made its move. */
+    private float[] _wins;
+    /** For each node, its minimax value for the player who made its
+     *  move, from the scores of the leaves below it. */
+    private float[] _value;
+    /** For each node, the hash key of its position, or 0 if it has not
+     *  been reached yet. */
+    private long[] _keys;
+    /** Arrays for keep to copy a subtree into, allocated when first
+     *  needed, and again whenever the current ones have grown. */
+    private int[] _spareMove, _spareFirst, _spareChildren, _spareVisits;
+    private float[] _spareWins, _spareValue;
+    /** Keys for keep to copy a subtree into. */
+    private long[] _spareKeys;
+    /** Number of playouts through the root inherited from the last
+     *  search. */
+    private int _reused;
+
+    /** Copy of the position being searched, on which moves are made and
+     *  unmade. */
+    private Board _board;
+    /** Nodes on the path of the current iteration, from the root. */
+    private int[] _path;
+    /** _movers[K] is the player who made the move of _path[K + 1]. */
+    private Side[] _movers;
+    /** Legal moves being shuffled by expand. */
+    private int[] _order;
+
+    /** Source of random moves. */
+    private final Playout _playout;
+}
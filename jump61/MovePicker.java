@@ -0,0 +1,146 @@
+package jump61;
+
+/** Produces the legal moves in one position of a game-tree search, in an
+ *  order likely to cause early cutoffs: first the move recorded for the
+ *  position in the transposition table, then the killer moves (moves
+ *  that recently caused cutoffs at the same ply), and then the rest,
+ *  squares that are about to overflow before others, and otherwise by
+ *  decreasing history score (how often a move has caused cutoffs
+ *  anywhere in the search).  Moves are produced in stages, and the
+ *  remaining moves are selected one at a time rather than sorted, so
+ *  that a cutoff after the first few moves wastes little work.  A
+ *  MovePicker is reused for every node at one ply, and allocates nothing
+ *  after construction.
+ *  @author Zeline Wang
+ */
+class MovePicker {
+
+    /** A MovePicker for boards of at most AREA squares. */
+    MovePicker(int area) {
+        _moves = new int[area];
+        _scores = new int[area];
+    }
+
+    /** Return the number of squares on the largest board I can handle. */
+    int capacity() {
+        return _moves.length;
+    }
+
+    /** Start producing the moves of PLAYER on BOARD.  HASHMOVE is the best
+     *  move recorded for this position, and KILLER0 and KILLER1 are the
+     *  killer moves for its ply (any of them negative if none).  HISTORY
+     *  gives the history scores of PLAYER's moves, by square. */
+    void start(Board board, Side player, int hashMove, int killer0,
+               int killer1, int[] history) {
+        _board = board;
+        _player = player;
+        _hashMove = hashMove;
+        _killer0 = killer0;
+        _killer1 = killer1;
+        _history = history;
+        _stage = HASH_MOVE;
+    }
+
+    /** Return the next move, or -1 if there are no more. */
+    int next() {
+        switch (_stage) {
+        case HASH_MOVE:
+            _stage = KILLER0;
+            if (playable(_hashMove)) {
+                return _hashMove;
+            }
+            return next();
+        case KILLER0:
+            _stage = KILLER1;
+            if (_killer0 != _hashMove && playable(_killer0)) {
+                return _killer0;
+            }
+            return next();
+        case KILLER1:
+            _stage = GENERATE;
+            if (_killer1 != _hashMove && _killer1 != _killer0
+                && playable(_killer1)) {
+                return _killer1;
+            }
+            return next();
+        case GENERATE:
+            generate();
+            _stage = REST;
+            return next();
+        default:
+            return select();
+        }
+    }
+
+    /** Return true iff square #N exists and is legal for the player. */
+    private boolean playable(int n) {
+        return n >= 0 && n < _board.size() * _board.size()
+            && _board.isLegal(_player, n);
+    }
+
+    /** Fill in the moves and scores of all legal moves not already
+     *  produced by earlier stages. */
+    private void generate() {
+        Board board = _board;
+        Topology topo = board.topology();
+        int area = board.size() * board.size();
+        _count = _next = 0;
+        for (int n = 0; n < area; n += 1) {
+            if (board.isLegal(_player, n) && n != _hashMove
+                && n != _killer0 && n != _killer1) {
+                int score = _history[n];
+                if (board.get(n).getSpots() == topo.capacity(n)) {
+                    score += CRITICAL_BONUS;
+                }
+                _moves[_count] = n;
+                _scores[_count] = score;
+                _count += 1;
+            }
+        }
+    }
+
+    /** Return the highest-scoring move not yet produced, or -1 if
+     *  none. */
+    private int select() {
+        if (_next == _count) {
+            return -1;
+        }
+        int best = _next;
+        for (int k = _next + 1; k < _count; k += 1) {
+            if (_scores[k] > _scores[best]) {
+                best = k;
+            }
+        }
+        int move = _moves[best], score = _scores[best];
+        _moves[best] = _moves[_next];
+        _scores[best] = _scores[_next];
+        _moves[_next] = move;
+        _scores[_next] = score;
+        _next += 1;
+        return move;
+    }
+
+    /** Stages of move production. */
+    private static final int
+        HASH_MOVE = 0, KILLER0 = 1, KILLER1 = 2, GENERATE = 3, REST = 4;
+
+    /** Added to the score of a move onto a square that will overflow,
+     *  placing it ahead of any move that will not.  History scores are
+     *  kept below this. */
+    static final int CRITICAL_BONUS = 1 << 30;
+
+    /** The position whose moves I am producing. */
+    private Board _board;
+    /** The player to move. */
+    private Side _player;
+    /** The transposition-table move and the killer moves. */
+    private int _hashMove, _killer0, _killer1;
+    /** History scores for _player, by square. */
+    private int[] _history;
+    /** Current stage. */
+    private int _stage;
+    /** Moves generated in the GENERATE stage, and their scores. */
+    private final int[] _moves, _scores;
+    /** Number of generated moves, and number of them produced so far. */
+    private int _count, _next;
+}
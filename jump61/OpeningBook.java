@@ -0,0 +1,245 @@
+package jump61;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/** A book of opening moves: the moves chosen by deep searches of the
+ *  positions that begin games on boards of each standard size, so that
+ *  an AI need not search them again in every game.  A book is built
+ *  offline, by main, and kept in a file holding a short header (MAGIC
+ *  and the number of entries) followed by one entry per position: its
+ *  hash key (see Board.hashKey, which also tells the size of the board)
+ *  and the square number of its move.  Entries are sorted by key, so
+ *  that a book is probed by binary search directly in the mapped file,
+ *  without reading it in or allocating anything.
+ *
+ *  A book covers a position if it can be reached in at most PLIES moves
+ *  from the start by a player who always takes the book's move, against
+ *  any moves at all by the other player.
+ *  @author Zeline Wang
+ */
+final class OpeningBook {
+
+    /** Build a book.  Usage:
+     *      java jump61.OpeningBook FILE [DEPTH [PLIES [MINSIZE [MAXSIZE]]]]
+     *  writes to FILE a book covering PLIES moves (by default, 2) of
+     *  boards of MINSIZE (2) to MAXSIZE (10) on a side, searching each
+     *  position to DEPTH (by default, 6).  Positions are searched by as
+     *  many threads as there are processors. */
+    public static void main(String... args) throws IOException {
+        if (args.length == 0 || args.length > 5) {
+            System.err.println("Usage: java jump61.OpeningBook FILE "
+                               + "[DEPTH [PLIES [MINSIZE [MAXSIZE]]]]");
+            System.exit(1);
+        }
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : DEPTH;
+        int plies = args.length > 2 ? Integer.parseInt(args[2]) : PLIES;
+        int minSize = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        int maxSize = args.length > 4 ? Integer.parseInt(args[4])
+            : Defaults.MAX_BOARD_SIZE;
+        long start = System.nanoTime();
+        int count = build(Paths.get(args[0]), minSize, maxSize, plies, depth);
+        System.out.printf("%d positions in %.1f s%n", count,
+                          (System.nanoTime() - start) * 1e-9);
+    }
+
+    /** Write to FILE a book covering PLIES moves on boards of MINSIZE to
+     *  MAXSIZE squares on a side, searching each position to DEPTH, and
+     *  return the number of positions in it. */
+    static int build(Path file, int minSize, int maxSize, int plies,
+                     int depth) throws IOException {
+        HashMap<Long, Integer> book = new HashMap<>();
+        HashSet<Long> seen = new HashSet<>();
+        ArrayList<ArrayList<Board>> levels = new ArrayList<>();
+        for (int ply = 0; ply <= plies; ply += 1) {
+            levels.add(new ArrayList<>());
+        }
+        for (int size = minSize; size <= maxSize; size += 1) {
+            Board start = new Board(size);
+            levels.get(0).add(start);
+            if (plies > 0) {
+                addReplies(start, levels.get(1), seen);
+            }
+        }
+        for (int ply = 0; ply <= plies; ply += 1) {
+            Board[] positions = levels.get(ply).toArray(new Board[0]);
+            int[] moves = search(positions, depth);
+            for (int k = 0; k < positions.length; k += 1) {
+                Board position = positions[k];
+                book.put(position.hashKey(), moves[k]);
+                if (ply + 2 <= plies) {
+                    position.makeMove(position.whoseMove(), moves[k]);
+                    if (!position.isTerminal()) {
+                        addReplies(position, levels.get(ply + 2), seen);
+                    }
+                }
+            }
+            levels.get(ply).clear();
+        }
+        write(file, book);
+        return book.size();
+    }
+
+    /** Return the book in FILE, as written by build. */
+    static OpeningBook open(Path file) throws IOException {
+        long length = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            MappedByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (length < HEADER || buffer.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not an opening book");
+            }
+            int count = buffer.getInt(Integer.BYTES);
+            if (length != HEADER + (long) count * ENTRY) {
+                throw new IOException(file + " is truncated");
+            }
+            return new OpeningBook(buffer, count);
+        }
+    }
+
+    /** A book of COUNT entries, kept in ENTRIES after the header. */
+    private OpeningBook(ByteBuffer entries, int count) {
+        _entries = entries;
+        _count = count;
+    }
+
+    /** Return the number of positions I cover. */
+    int size() {
+        return _count;
+    }
+
+    /** Return the move for the position whose hash key is KEY, or -1 if
+     *  I do not cover it. */
+    int probe(long key) {
+        int lo = 0, hi = _count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long k = _entries.getLong(HEADER + mid * ENTRY);
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid - 1;
+            } else {
+                return _entries.getShort(HEADER + mid * ENTRY + Long.BYTES);
+            }
+        }
+        return -1;
+    }
+
+    /** Add to LEVEL a copy of POSITION after each legal move in it,
+     *  unless the game is then over or the resulting position is in SEEN,
+     *  and add the keys of the positions added to SEEN. */
+    private static void addReplies(Board position, ArrayList<Board> level,
+                                   HashSet<Long> seen) {
+        Side player = position.whoseMove();
+        int area = position.size() * position.size();
+        for (int n = 0; n < area; n += 1) {
+            if (position.isLegal(player, n)) {
+                Board reply = new Board(position);
+                reply.makeMove(player, n);
+                if (!reply.isTerminal() && seen.add(reply.hashKey())) {
+                    level.add(reply);
+                }
+            }
+        }
+    }
+
+    /** Return the moves chosen by searching each of POSITIONS to DEPTH,
+     *  dividing the positions among all processors.  Each search starts
+     *  with an empty transposition table, so that its result does not
+     *  depend on which positions were searched before it. */
+    private static int[] search(Board[] positions, int depth) {
+        int[] moves = new int[positions.length];
+        SearchParams params = new SearchParams();
+        params.setDepthLimit(depth);
+        ThreadLocal<AI> ais =
+            ThreadLocal.withInitial(() -> new AI(null, Side.RED));
+        ThreadLocal<TranspositionTable> tables =
+            ThreadLocal.withInitial(
+                () -> new TranspositionTable(
+                    Defaults.TABLE_SIZE,
+                    TranspositionTable.Replacement.DEPTH));
+        RecursiveAction[] searches = new RecursiveAction[positions.length];
+        for (int k = 0; k < positions.length; k += 1) {
+            final int i = k;
+            searches[k] = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    TranspositionTable table = tables.get();
+                    table.clear();
+                    moves[i] = ais.get().findMove(positions[i], params,
+                                                  table);
+                }
+            };
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(searches);
+            }
+        });
+        return moves;
+    }
+
+    /** Write the entries of BOOK, a map from hash keys to moves, to
+     *  FILE. */
+    private static void write(Path file, HashMap<Long, Integer> book)
+        throws IOException {
+        long[] keys = new long[book.size()];
+        int count = 0;
+        for (long key : book.keySet()) {
+            keys[count] = key;
+            count += 1;
+        }
+        Arrays.sort(keys);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + count * ENTRY);
+        buffer.putInt(MAGIC).putInt(count);
+        for (long key : keys) {
+            buffer.putLong(key).putShort((short) (int) book.get(key));
+        }
+        buffer.flip();
+        try (FileChannel channel =
+             FileChannel.open(file, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /** Default search depth for building a book. */
+    static final int DEPTH = 6;
+
+    /** Default number of moves covered by a book. */
+    static final int PLIES = 2;
+
+    /** Marks the start of a book file ("J61O"). */
+    private static final int MAGIC = 0x4a36314f;
+
+    /** Bytes in a book file before the first entry: MAGIC and the number
+     *  of entries. */
+    private static final int HEADER = 2 * Integer.BYTES;
+
+    /** Bytes in an entry: a key and a move. */
+    private static final int ENTRY = Long.BYTES + Short.BYTES;
+
+    /** The mapped book file. */
+    private final ByteBuffer _entries;
+    /** Number of entries. */
+    private final int _count;
+}
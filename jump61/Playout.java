@@ -0,0 +1,52 @@
+package jump61;
+
+/** The kernel of simulation-based players: plays random games on a
+ *  Board.  Moves are chosen by Board.randomMove, which on a BitBoard
+ *  picks among the legal squares with a few mask operations, and made by
+ *  Board.makeMove, which topples cascades in place and keeps the counts
+ *  that tell whether the game is over up to date, so that a playout
+ *  allocates nothing and builds no lists.  Random numbers come from my
+ *  own XorShift, so a Playout must not be shared between threads.
+ *  @author Zeline Wang
+ */
+final class Playout {
+
+    /** A Playout whose moves are chosen using SEED. */
+    Playout(long seed) {
+        _random = new XorShift(seed);
+    }
+
+    /** Return my random-number generator. */
+    XorShift random() {
+        return _random;
+    }
+
+    /** Make random moves on BOARD until its game is over, or for at most
+     *  LIMIT moves, and return the number of moves made.  The moves are
+     *  made with makeMove, and the caller must unmake them. */
+    int play(Board board, int limit) {
+        int moves;
+        for (moves = 0; moves < limit && !board.isTerminal(); moves += 1) {
+            Side player = board.whoseMove();
+            board.makeMove(player, board.randomMove(player, _random));
+        }
+        return moves;
+    }
+
+    /** Play a random game to its end from the position on BOARD, restore
+     *  that position, and return the winner. */
+    Side winner(Board board) {
+        if (board.isTerminal()) {
+            return board.getWinner();
+        }
+        Side player = board.whoseMove();
+        int token = board.makeMove(player, board.randomMove(player, _random));
+        play(board, Integer.MAX_VALUE);
+        Side winner = board.getWinner();
+        board.unmakeMove(token);
+        return winner;
+    }
+
+    /** Source of random moves. */
+    private final XorShift _random;
+}
@@ -0,0 +1,344 @@
+package jump61;
+
+import java.util.Arrays;
+
+/** A solver that proves which side wins a position, by depth-first
+ *  proof-number search (df-pn).  Unlike a Searcher, it does not stop at
+ *  a fixed depth, so it finds forced wins however long, and it spends
+ *  its effort where a proof looks cheapest: along the moves that leave
+ *  the opponent the fewest replies still to refute.
+ *
+ *  Each position has a proof number, the least number of unexplored
+ *  positions that must turn out to be wins for the player to move for
+ *  it to be a win, and a disproof number, the same for losses.  A
+ *  position is a win iff one of its moves leads to a loss for the
+ *  opponent, and a loss iff all of them lead to wins, so its proof
+ *  number is the least disproof number of its successors, and its
+ *  disproof number the sum of their proof numbers.  The search
+ *  descends into the successor with the least disproof number, and
+ *  works there until that is no longer so (its numbers reach
+ *  thresholds passed down from above), rather than returning to the
+ *  root after each expansion.  Since every move adds a spot, no
+ *  position recurs in a game, so the numbers are never confused by
+ *  cycles.
+ *
+ *  Numbers are kept in a fixed-size table, so that the memory used is
+ *  bounded however long the search.  Each slot holds two entries; a new
+ *  entry replaces the one of the two whose subtree took less work.
+ *  Proofs stay valid, so the table may be kept from one position to the
+ *  next.  A Prover works on its own copy of a position, and must not be
+ *  shared between threads.
+ *  @author Zeline Wang
+ */
+class Prover {
+
+    /** A Prover whose table occupies about MEGABYTES megabytes. */
+    Prover(int megabytes) {
+        long entries = Long.highestOneBit(
+            Math.max(2, ((long) megabytes << 20) / ENTRY_BYTES));
+        int size = (int) Math.min(entries, MAX_ENTRIES);
+        _keys = new long[size];
+        _numbers = new long[size];
+        _work = new int[size];
+        _mask = size - 2;
+    }
+
+    /** Remove all entries from my table. */
+    void clear() {
+        Arrays.fill(_keys, 0);
+        Arrays.fill(_numbers, 0);
+        Arrays.fill(_work, 0);
+    }
+
+    /** Search POSITION, as limited by the time and node limits of PARAMS,
+     *  and return the side that wins it with best play, or null if the
+     *  search ran out before proving either.  Afterwards, line() is the
+     *  principal line of the proof. */
+    Side prove(Board position, SearchParams params) {
+        _board = BitBoard.of(position);
+        _budget = new SearchBudget(params);
+        _nodes = 0;
+        _aborted = false;
+        _top = 0;
+        Side player = _board.whoseMove();
+        if (_board.isTerminal()) {
+            return _board.getWinner();
+        }
+        search(INFINITY, INFINITY);
+        _budget.charge(_nodes & (BATCH - 1));
+        if (_proof == 0) {
+            return player;
+        } else if (_disproof == 0) {
+            return player.opposite();
+        }
+        return null;
+    }
+
+    /** Return the number of positions examined by the last prove. */
+    long nodes() {
+        return _budget.nodes();
+    }
+
+    /** Return the moves of the principal line of the last prove, so far
+     *  as my table still records it: for the winner, the move whose
+     *  proof took the least work, and for the loser, the move whose
+     *  refutation took the most.  Empty if nothing was proven. */
+    int[] line() {
+        Board board = _board;
+        int[] moves = new int[0], tokens = new int[0];
+        int count;
+        for (count = 0; !board.isTerminal(); count += 1) {
+            long entry = lookup(board.hashKey());
+            if (entry == MISS || (proof(entry) != 0 && disproof(entry) != 0)) {
+                break;
+            }
+            int move = lineMove(board, proof(entry) == 0);
+            if (move < 0) {
+                break;
+            }
+            if (count == moves.length) {
+                moves = Arrays.copyOf(moves, 2 * count + 1);
+                tokens = Arrays.copyOf(tokens, 2 * count + 1);
+            }
+            moves[count] = move;
+            tokens[count] = board.makeMove(board.whoseMove(), move);
+        }
+        for (int k = count - 1; k >= 0; k -= 1) {
+            board.unmakeMove(tokens[k]);
+        }
+        return Arrays.copyOf(moves, count);
+    }
+
+    /** Return the move of the principal line from the position on BOARD,
+     *  which is proven to be won for the player to move if WON, and lost
+     *  otherwise, or -1 if my table no longer records one. */
+    private int lineMove(Board board, boolean won) {
+        Side player = board.whoseMove();
+        int best = -1;
+        long bestWork = won ? Long.MAX_VALUE : -1;
+        for (int n = 0; n < board.size() * board.size(); n += 1) {
+            if (board.isLegal(player, n)) {
+                int token = board.makeMove(player, n);
+                long work;
+                if (board.isTerminal()) {
+                    work = 0;
+                } else {
+                    long entry = lookup(board.hashKey());
+                    if (entry == MISS
+                        || (won ? disproof(entry) : proof(entry)) != 0) {
+                        work = -1;
+                    } else {
+                        work = _work[_slot];
+                    }
+                }
+                board.unmakeMove(token);
+                if (work >= 0 && (won ? work < bestWork : work > bestWork)) {
+                    best = n;
+                    bestWork = work;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Search the position on my board until its proof number reaches
+     *  PROOFLIMIT or its disproof number reaches DISPROOFLIMIT, or the
+     *  budget runs out, leaving its numbers in _proof and _disproof and
+     *  recording them in my table.  Uses the part of my move stack
+     *  above _top for the moves of the position, and their numbers. */
+    private void search(int proofLimit, int disproofLimit) {
+        Board board = _board;
+        Side player = board.whoseMove();
+        long key = board.hashKey();
+        long start = _nodes;
+        int base = _top;
+        int count = 0;
+        int area = board.size() * board.size();
+        reserve(base + area);
+        for (int n = 0; n < area; n += 1) {
+            if (board.isLegal(player, n)) {
+                int token = board.makeMove(player, n);
+                boolean won = board.isTerminal();
+                long entry = won ? MISS : lookup(board.hashKey());
+                board.unmakeMove(token);
+                if (won) {
+                    finish(key, 0, INFINITY, start);
+                    return;
+                }
+                _moves[base + count] = n;
+                _proofs[base + count] = entry == MISS ? 1 : proof(entry);
+                _disproofs[base + count] =
+                    entry == MISS ? 1 : disproof(entry);
+                count += 1;
+            }
+        }
+        _top = base + count;
+        int proof, disproof;
+        while (true) {
+            int best = base, second = INFINITY;
+            long sum = 0;
+            for (int i = base; i < base + count; i += 1) {
+                sum += _proofs[i];
+                if (_disproofs[i] < _disproofs[best]) {
+                    second = _disproofs[best];
+                    best = i;
+                } else if (i != best && _disproofs[i] < second) {
+                    second = _disproofs[i];
+                }
+            }
+            proof = _disproofs[best];
+            disproof = (int) Math.min(sum, INFINITY);
+            if (proof >= proofLimit || disproof >= disproofLimit
+                || _aborted || outOfBudget()) {
+                break;
+            }
+            long childProofLimit =
+                (long) disproofLimit - disproof + _proofs[best];
+            long childDisproofLimit =
+                Math.min(proofLimit, (long) second + second / GROWTH + 1);
+            int token = board.makeMove(player, _moves[best]);
+            search((int) Math.min(childProofLimit, INFINITY),
+                   (int) Math.min(childDisproofLimit, INFINITY));
+            board.unmakeMove(token);
+            _proofs[best] = _proof;
+            _disproofs[best] = _disproof;
+        }
+        _top = base;
+        finish(key, proof, disproof, start);
+    }
+
+    /** Set _proof and _disproof to PROOF and DISPROOF, the numbers of the
+     *  position with hash KEY, and record them in my table, unless the
+     *  search was abandoned.  The search of the position began when
+     *  _nodes was START. */
+    private void finish(long key, int proof, int disproof, long start) {
+        _proof = proof;
+        _disproof = disproof;
+        if (!_aborted) {
+            store(key, proof, disproof,
+                  (int) Math.min(_nodes - start + 1, Integer.MAX_VALUE));
+        }
+    }
+
+    /** Make room in my move stack for at least SIZE entries. */
+    private void reserve(int size) {
+        if (size > _moves.length) {
+            int length = Math.max(size, 2 * _moves.length);
+            _moves = Arrays.copyOf(_moves, length);
+            _proofs = Arrays.copyOf(_proofs, length);
+            _disproofs = Arrays.copyOf(_disproofs, length);
+        }
+    }
+
+    /** Count a position examined, and return true iff the search has run
+     *  out of time or nodes and should be abandoned.  Nodes are charged
+     *  to the budget in batches. */
+    private boolean outOfBudget() {
+        _nodes += 1;
+        if ((_nodes & (BATCH - 1)) == 0) {
+            _aborted = _budget.charge(BATCH);
+        } else if (_budget.exhausted()) {
+            _aborted = true;
+        }
+        return _aborted;
+    }
+
+    /** Return the packed proof and disproof numbers recorded for the
+     *  position with hash KEY, setting _slot to its index in my table,
+     *  or MISS if there are none. */
+    private long lookup(long key) {
+        int slot = (int) key & _mask;
+        for (int k = slot; k < slot + 2; k += 1) {
+            if (_work[k] != 0 && _keys[k] == key) {
+                _slot = k;
+                return _numbers[k];
+            }
+        }
+        return MISS;
+    }
+
+    /** Record PROOF and DISPROOF as the numbers of the position with hash
+     *  KEY, whose search took WORK nodes (at least 1). */
+    private void store(long key, int proof, int disproof, int work) {
+        int slot = (int) key & _mask;
+        int k;
+        if (_work[slot] != 0 && _keys[slot] == key) {
+            k = slot;
+            work = Math.max(work, _work[k]);
+        } else if (_work[slot + 1] != 0 && _keys[slot + 1] == key) {
+            k = slot + 1;
+            work = Math.max(work, _work[k]);
+        } else {
+            k = _work[slot] <= _work[slot + 1] ? slot : slot + 1;
+        }
+        _keys[k] = key;
+        _numbers[k] = ((long) disproof << 32) | proof;
+        _work[k] = work;
+    }
+
+    /** Return the proof number in packed numbers ENTRY. */
+    private static int proof(long entry) {
+        return (int) entry;
+    }
+
+    /** Return the disproof number in packed numbers ENTRY. */
+    private static int disproof(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    /** Proof or disproof number of a position that cannot be proven or
+     *  disproven, respectively.  Sums of numbers are capped at this. */
+    static final int INFINITY = Integer.MAX_VALUE;
+
+    /** The result of lookup for a position not in the table.  (No entry
+     *  has both numbers 0.) */
+    private static final long MISS = 0;
+
+    /** The threshold given to a successor's disproof number is the
+     *  second-least disproof number among its siblings, increased by
+     *  1/GROWTH of itself, which saves switching back and forth between
+     *  two nearly equal successors (the "1 + epsilon" trick). */
+    private static final int GROWTH = 4;
+
+    /** Number of nodes counted between charges to the budget (a power
+     *  of two). */
+    private static final int BATCH = 256;
+
+    /** Bytes of storage per entry. */
+    private static final int ENTRY_BYTES = 2 * Long.BYTES + Integer.BYTES;
+    /** Largest number of entries. */
+    private static final long MAX_ENTRIES = 1 << 28;
+
+    /** Hash keys of the entries. */
+    private final long[] _keys;
+    /** Proof numbers (low half) and disproof numbers (high half) of the
+     *  entries. */
+    private final long[] _numbers;
+    /** Nodes searched to reach the numbers of each entry, or 0 for an
+     *  empty entry. */
+    private final int[] _work;
+    /** Mask selecting the first slot of a pair from a key. */
+    private final int _mask;
+    /** Index of the entry last found by lookup. */
+    private int _slot;
+
+    /** The board being searched.  Moves are made and unmade on it. */
+    private Board _board;
+    /** The allowance for the current search. */
+    private SearchBudget _budget;
+    /** Number of nodes visited by the current search. */
+    private long _nodes;
+    /** True iff the current search has run out of time or nodes. */
+    private boolean _aborted;
+
+    /** The moves of the positions on the current path of the search,
+     *  each position's above its predecessor's, and their successors'
+     *  proof and disproof numbers. */
+    private int[] _moves = new int[0], _proofs = new int[0],
+        _disproofs = new int[0];
+    /** Number of entries of _moves in use. */
+    private int _top;
+
+    /** Numbers of the position most recently searched. */
+    private int _proof, _disproof;
+}
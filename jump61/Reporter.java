@@ -2,6 +2,9 @@
  * University of California.  All rights reserved. */
 package jump61;
 
+import java.util.Formatter;
+import java.util.function.Consumer;
+
 /** An object that formats and sends messages and errors.
  *  @author P. N. Hilfinger
  */
@@ -21,5 +24,10 @@ interface Reporter {
      *  the same meaning as in String.format. */
     void err(String format, Object... args);
 
+    /** Display a message written by BODY to the Formatter it is given,
+     *  for messages too long to build as one string first, such as the
+     *  dump of a large board. */
+    void write(Consumer<Formatter> body);
+
 }
 
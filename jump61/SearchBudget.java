@@ -0,0 +1,57 @@
+package jump61;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** The time and node allowance for one AI search, shared by all of the
+ *  threads taking part in it.  Searchers count nodes locally and charge
+ *  them here in batches; once either allowance is used up, the budget
+ *  stays exhausted, and every searcher abandons its work.
+ *  @author Zeline Wang
+ */
+class SearchBudget {
+
+    /** A budget, starting now, as limited by PARAMS. */
+    SearchBudget(SearchParams params) {
+        _nodeLimit = params.nodeLimit() > 0 ? params.nodeLimit()
+            : Long.MAX_VALUE;
+        _timed = params.timeLimit() > 0;
+        _deadline = System.nanoTime() + params.timeLimit() * 1_000_000;
+    }
+
+    /** Add NODES to the number of nodes searched, and return true iff the
+     *  budget is now exhausted. */
+    boolean charge(long nodes) {
+        if (_nodes.addAndGet(nodes) >= _nodeLimit
+            || (_timed && System.nanoTime() - _deadline > 0)) {
+            _exhausted = true;
+        }
+        return _exhausted;
+    }
+
+    /** End the search now, as if the budget had run out. */
+    void stop() {
+        _exhausted = true;
+    }
+
+    /** Return true iff the time or nodes allowed have run out, or the
+     *  search has been stopped. */
+    boolean exhausted() {
+        return _exhausted;
+    }
+
+    /** Return the number of nodes charged so far. */
+    long nodes() {
+        return _nodes.get();
+    }
+
+    /** Most nodes that may be searched. */
+    private final long _nodeLimit;
+    /** True iff time is limited. */
+    private final boolean _timed;
+    /** Value of System.nanoTime() at which time runs out, if _timed. */
+    private final long _deadline;
+    /** Nodes charged so far. */
+    private final AtomicLong _nodes = new AtomicLong();
+    /** True once the budget has run out. */
+    private volatile boolean _exhausted;
+}
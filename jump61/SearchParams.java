@@ -0,0 +1,89 @@
+package jump61;
+
+/** Settings controlling how an automated player searches for its moves.
+ *  A Game keeps one set for each side, so that they survive switching a
+ *  side between manual and automated play.
+ *  @author Zeline Wang
+ */
+class SearchParams {
+
+    /** Ways of searching with more than one thread. */
+    enum Mode {
+        /** Divide the moves at the root among the threads. */
+        SPLIT,
+        /** Lazy SMP: every thread searches the whole tree, at staggered
+         *  depths, sharing what they learn through the transposition
+         *  table. */
+        SMP
+    }
+
+    /** Return the most time, in milliseconds, to spend choosing a move,
+     *  or 0 if unlimited. */
+    long timeLimit() {
+        return _timeLimit;
+    }
+
+    /** Set timeLimit() to MILLIS. */
+    void setTimeLimit(long millis) {
+        _timeLimit = millis;
+    }
+
+    /** Return the most game-tree nodes to examine in choosing a move, or 0
+     *  if unlimited. */
+    long nodeLimit() {
+        return _nodeLimit;
+    }
+
+    /** Set nodeLimit() to NODES. */
+    void setNodeLimit(long nodes) {
+        _nodeLimit = nodes;
+    }
+
+    /** Return the way to divide the search among threads(). */
+    Mode mode() {
+        return _mode;
+    }
+
+    /** Set mode() to MODE. */
+    void setMode(Mode mode) {
+        _mode = mode;
+    }
+
+    /** Return the depth to which to search, or 0 for the default (see
+     *  AI.findMove). */
+    int depthLimit() {
+        return _depthLimit;
+    }
+
+    /** Set depthLimit() to DEPTH. */
+    void setDepthLimit(int depth) {
+        _depthLimit = depth;
+    }
+
+    /** Return true iff either the time or the number of nodes for a
+     *  search is limited. */
+    boolean limited() {
+        return _timeLimit > 0 || _nodeLimit > 0;
+    }
+
+    /** Return the number of threads to search with. */
+    int threads() {
+        return _threads;
+    }
+
+    /** Set threads() to THREADS, which must be positive. */
+    void setThreads(int threads) {
+        _threads = threads;
+    }
+
+    /** Time limit in milliseconds, or 0. */
+    private long _timeLimit;
+    /** Node limit, or 0. */
+    private long _nodeLimit;
+    /** Depth limit, or 0. */
+    private int _depthLimit;
+    /** Number of search threads. */
+    private int _threads = 1;
+    /** Multi-threaded search mode. */
+    private Mode _mode = Mode.SPLIT;
+}
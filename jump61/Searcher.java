@@ -0,0 +1,382 @@
+package jump61;
+
+import java.util.Arrays;
+
+import static jump61.Side.*;
+import static jump61.TranspositionTable.*;
+
+/** The game-tree search of an AI, working on a private copy of the
+ *  position.  A Searcher owns everything a search changes as it goes
+ *  (the board, move pickers, killer moves and history scores), so that
+ *  several can search the same position at once on different threads,
+ *  sharing only a transposition table and a SearchBudget.
+ *  @author Zeline Wang
+ */
+class Searcher {
+
+    /** Greatest depth of any search. */
+    static final int MAX_DEPTH = 32;
+
+    /** The value of a won position for the winner.  Every value lies in
+     *  the range -WIN .. WIN, so may be negated safely. */
+    static final int WIN = Integer.MAX_VALUE;
+
+    /** A Searcher for boards of AREA squares. */
+    Searcher(int area) {
+        _history = new int[Side.values().length][area];
+        for (int d = 0; d < _pickers.length; d += 1) {
+            _pickers[d] = new MovePicker(area);
+        }
+    }
+
+    /** Return the number of squares of the boards I can search. */
+    int area() {
+        return _history[0].length;
+    }
+
+    /** Prepare to search POSITION, which must have area() squares, using
+     *  TABLE as the transposition table and stopping when BUDGET is
+     *  exhausted.  Clears the killer moves and ages the history
+     *  scores. */
+    void start(Board position, TranspositionTable table,
+               SearchBudget budget) {
+        _board = BitBoard.of(position);
+        _table = table;
+        _budget = budget;
+        _nodes = 0;
+        _aborted = false;
+        Arrays.fill(_values, WIN);
+        for (int[] killers : _killers) {
+            killers[0] = killers[1] = -1;
+        }
+        for (int[] history : _history) {
+            for (int n = 0; n < history.length; n += 1) {
+                history[n] /= 2;
+            }
+        }
+    }
+
+    /** Return the board I am searching. */
+    Board board() {
+        return _board;
+    }
+
+    /** Return true iff my last search was abandoned for lack of time or
+     *  nodes. */
+    boolean aborted() {
+        return _aborted;
+    }
+
+    /** Return the value of the position to DEPTH for the player to
+     *  move, setting foundMove() to the best move.  After the first few
+     *  iterations of a search, first tries an aspiration window: a
+     *  narrow window around the value found two iterations before
+     *  (values tend to alternate with the parity of the depth), which
+     *  is usually close and lets more of the tree be cut off.  Should
+     *  the value fall outside it, searches again with a window widened
+     *  on that side.  The value is meaningless if aborted(). */
+    int searchRoot(int depth) {
+        _rootDepth = depth;
+        _foundMove = -1;
+        int value;
+        int previous = depth >= ASPIRATION_DEPTH ? _values[depth - 2] : WIN;
+        if (Math.abs(previous) == WIN) {
+            value = search(depth, -WIN, WIN, true);
+        } else {
+            int alpha = Math.max(-WIN, previous - ASPIRATION_WINDOW),
+                beta = Math.min(WIN, previous + ASPIRATION_WINDOW);
+            long delta = ASPIRATION_WINDOW;
+            while (true) {
+                value = search(depth, alpha, beta, true);
+                if (_aborted) {
+                    break;
+                }
+                delta *= 4;
+                if (value <= alpha && alpha > -WIN) {
+                    alpha = (int) Math.max(-WIN, value - delta);
+                } else if (value >= beta && beta < WIN) {
+                    beta = (int) Math.min(WIN, value + delta);
+                } else {
+                    break;
+                }
+            }
+        }
+        _values[depth] = value;
+        flush();
+        return value;
+    }
+
+    /** Return the best move found by the last searchRoot. */
+    int foundMove() {
+        return _foundMove;
+    }
+
+    /** Return the value to DEPTH, for the player to move, of making MOVE
+     *  in the position, which is exact if it lies strictly between
+     *  ALPHA and BETA, and otherwise a bound on that side.  The value is
+     *  meaningless if aborted(). */
+    int searchMove(int move, int depth, int alpha, int beta) {
+        _rootDepth = depth;
+        int token = _board.makeMove(_board.whoseMove(), move);
+        int value = -search(depth - 1, -beta, -alpha, false);
+        _board.unmakeMove(token);
+        flush();
+        return value;
+    }
+
+    /** Store the moves of the position in MOVES, in the order searchRoot
+     *  would try them, and return their number. */
+    int rootMoves(int[] moves) {
+        long entry = _table.probe(_board.hashKey());
+        MovePicker picker = _pickers[0];
+        Side player = _board.whoseMove();
+        picker.start(_board, player, entry == MISS ? -1 : move(entry),
+                     _killers[0][0], _killers[0][1],
+                     _history[player.ordinal()]);
+        int count = 0;
+        for (int n = picker.next(); n >= 0; n = picker.next()) {
+            moves[count] = n;
+            count += 1;
+        }
+        return count;
+    }
+
+    /** Record in the transposition table that the position has the exact
+     *  value VALUE to DEPTH, with best move MOVE. */
+    void recordRoot(int depth, int value, int move) {
+        _table.store(_board.hashKey(), depth, EXACT, value, move);
+    }
+
+    /** Count a node visited by the current search, and return true iff
+     *  the search has run out of time or nodes and should be abandoned.
+     *  Nodes are charged to the shared budget in batches. */
+    private boolean outOfBudget() {
+        _nodes += 1;
+        if ((_nodes & (BATCH - 1)) == 0) {
+            _aborted = _budget.charge(BATCH);
+        } else if (_budget.exhausted()) {
+            _aborted = true;
+        }
+        return _aborted;
+    }
+
+    /** Charge the nodes not yet charged to the budget. */
+    private void flush() {
+        _budget.charge(_nodes & (BATCH - 1));
+        _nodes &= ~(long) (BATCH - 1);
+    }
+
+    /** Return the value to DEPTH of the position on my board for the
+     *  player to move (the negamax formulation: each side maximizes the
+     *  negation of the other's values).  The value is exact if it lies
+     *  strictly between ALPHA and BETA; otherwise it is an upper bound
+     *  (<= ALPHA) or a lower bound (>= BETA).  If ROOT, the position is
+     *  the root of the search: sets _foundMove to the best move, and
+     *  does not take the value from the transposition table.
+     *
+     *  This is a principal variation search.  Only the first move,
+     *  expected to be the best given the move ordering, is searched
+     *  with the full window.  Each later move is first searched with a
+     *  null window (ALPHA, ALPHA + 1), which can only show that it is no
+     *  better than the best so far, but does so cheaply; it is searched
+     *  again with the full window only if it turns out to be better.
+     *
+     *  Results of searches to depth 1 or more are recorded in the
+     *  transposition table, so that a position reached again (by
+     *  another move order, or in a later search) is not searched again
+     *  when the recorded result is deep enough and decides the window.
+     */
+    private int search(int depth, int alpha, int beta, boolean root) {
+        if (outOfBudget()) {
+            return 0;
+        }
+        Board board = _board;
+        Side player = board.whoseMove();
+        if (depth == 0) {
+            return evaluate(board, player);
+        }
+        if (board.getWinner() == player.opposite()) {
+            return -WIN;
+        }
+        long key = board.hashKey();
+        long entry = _table.probe(key);
+        int hashMove = entry == MISS ? -1 : move(entry);
+        if (!root && entry != MISS && depth(entry) >= depth) {
+            int score = score(entry);
+            switch (bound(entry)) {
+            case LOWER:
+                if (score >= beta) {
+                    return score;
+                }
+                break;
+            case UPPER:
+                if (score <= alpha) {
+                    return score;
+                }
+                break;
+            default:
+                return score;
+            }
+        }
+        int alpha0 = alpha;
+        int best = -WIN, bestMove = -1;
+        int ply = _rootDepth - depth;
+        MovePicker picker = _pickers[depth];
+        picker.start(board, player, hashMove, _killers[ply][0],
+                     _killers[ply][1], _history[player.ordinal()]);
+        for (int i = picker.next(); i >= 0; i = picker.next()) {
+            int token = board.makeMove(player, i);
+            int value;
+            if (bestMove < 0) {
+                value = -search(depth - 1, -beta, -alpha, false);
+            } else {
+                value = -search(depth - 1, -alpha - 1, -alpha, false);
+                if (value > alpha && value < beta && !_aborted) {
+                    value = -search(depth - 1, -beta, -alpha, false);
+                }
+            }
+            board.unmakeMove(token);
+            if (_aborted) {
+                return 0;
+            }
+            if (bestMove < 0 || value > best) {
+                best = value;
+                bestMove = i;
+            }
+            if (best > alpha) {
+                alpha = best;
+            }
+            if (alpha >= beta) {
+                noteCutoff(player, i, depth, ply);
+                break;
+            }
+        }
+        if (root) {
+            _foundMove = bestMove;
+        }
+        record(key, depth, best, alpha0, beta, bestMove);
+        return best;
+    }
+
+    /** Note that MOVE by PLAYER, searched to DEPTH at ply PLY, caused a
+     *  cutoff: make it the first killer move at PLY, and raise its
+     *  history score. */
+    private void noteCutoff(Side player, int move, int depth, int ply) {
+        int[] killers = _killers[ply];
+        if (killers[0] != move) {
+            killers[1] = killers[0];
+            killers[0] = move;
+        }
+        int[] history = _history[player.ordinal()];
+        history[move] += depth * depth;
+        if (history[move] >= HISTORY_LIMIT) {
+            for (int n = 0; n < history.length; n += 1) {
+                history[n] /= 2;
+            }
+        }
+    }
+
+    /** Record in the transposition table that the position with hash KEY,
+     *  searched to DEPTH with window (ALPHA, BETA), has value BEST and best
+     *  move MOVE.  A value outside the window is only a bound. */
+    private void record(long key, int depth, int best, int alpha, int beta,
+                        int move) {
+        int bound;
+        if (best <= alpha) {
+            bound = UPPER;
+        } else if (best >= beta) {
+            bound = LOWER;
+        } else {
+            bound = EXACT;
+        }
+        _table.store(key, depth, bound, best, move);
+    }
+
+    /** Return a heuristic estimate of the value of board position B for
+     *  PLAYER: WIN if PLAYER has won, -WIN if PLAYER has lost. */
+    private int evaluate(Board b, Side player) {
+        int value = staticEval(b, WIN);
+        return player == RED ? value : -value;
+    }
+
+    /** Return a heuristic estimate of the value of board position B.
+     *  Use WINNINGVALUE to indicate a win for Red and -WINNINGVALUE to
+     *  indicate a win for Blue.  Otherwise, the value is a weighted sum
+     *  of Red's advantage in squares, spots, critical squares and rim
+     *  weight (see Board), all of which the board keeps up to date as
+     *  it changes, so that evaluation takes constant time. */
+    static int staticEval(Board b, int winningValue) {
+        int redCount = b.numOfSide(RED);
+        int blueCount = b.numOfSide(BLUE);
+        if (redCount == b.size() * b.size()) {
+            return winningValue;
+        } else if (blueCount == b.size() * b.size()) {
+            return -winningValue;
+        } else {
+            int spots = b.spotsOfSide(RED) - b.spotsOfSide(BLUE);
+            int critical = b.criticalOfSide(RED) - b.criticalOfSide(BLUE);
+            int rim = b.rimOfSide(RED) - b.rimOfSide(BLUE);
+            return SQUARE_WEIGHT * (redCount - blueCount)
+                + SPOT_WEIGHT * spots + CRITICAL_WEIGHT * critical
+                + RIM_WEIGHT * rim;
+        }
+    }
+
+    /** Number of nodes counted between charges to the budget (a power
+     *  of two). */
+    private static final int BATCH = 256;
+
+    /** Weights of the terms of staticEval: squares, spots, critical
+     *  squares, and rim weight. */
+    private static final int
+        SQUARE_WEIGHT = 4, SPOT_WEIGHT = 1, CRITICAL_WEIGHT = 3,
+        RIM_WEIGHT = 1;
+
+    /** Depth of the first iteration to use an aspiration window. */
+    private static final int ASPIRATION_DEPTH = 3;
+
+    /** Distance of the initial bounds of an aspiration window from the
+     *  value it is centered on. */
+    private static final int ASPIRATION_WINDOW = 2 * SQUARE_WEIGHT;
+
+    /** Bound on history scores, which are halved when one reaches it. */
+    private static final int HISTORY_LIMIT = 1 << 20;
+
+    /** The board being searched.  Moves are made and unmade on it. */
+    private Board _board;
+
+    /** The transposition table. */
+    private TranspositionTable _table;
+
+    /** The allowance for the current search. */
+    private SearchBudget _budget;
+
+    /** Move pickers, one for each remaining search depth, so that
+     *  searching allocates nothing per node. */
+    private final MovePicker[] _pickers = new MovePicker[MAX_DEPTH + 1];
+
+    /** The two most recent moves to cause a cutoff at each ply (distance
+     *  from the root), or -1. */
+    private final int[][] _killers = new int[MAX_DEPTH + 1][2];
+
+    /** History scores: for each side and square, a measure of how often
+     *  and how deep moves there have caused cutoffs.  Aged by halving at
+     *  the start of each search. */
+    private final int[][] _history;
+
+    /** The values found by the iterations of the current search, indexed
+     *  by depth, or WIN for those not yet done. */
+    private final int[] _values = new int[MAX_DEPTH + 1];
+
+    /** Depth of the current iteration of the search. */
+    private int _rootDepth;
+
+    /** Number of nodes visited by the current search. */
+    private long _nodes;
+
+    /** True iff the current search has run out of time or nodes. */
+    private boolean _aborted;
+
+    /** Used to convey moves discovered by search. */
+    private int _foundMove;
+}
@@ -0,0 +1,424 @@
+package jump61;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static jump61.Side.*;
+
+/** An endgame tablebase: the exact value of every position on the
+ *  smallest boards, so that an AI plays them perfectly without
+ *  searching.
+ *
+ *  Positions are numbered by a perfect hash: each square is a digit, 0
+ *  for a white square and 1 .. 2C for one holding 1 .. C spots of either
+ *  color, where C is its number of neighbors, and a position's index is
+ *  the number those digits form, read in mixed radix with square #0 the
+ *  lowest digit.  Whose move it is follows from the position.  On a 3x3
+ *  board, there are 13.5 million indices; on 4x4, there would be 2 x
+ *  10^13, so only boards of up to MAX_SIZE squares on a side are
+ *  covered.
+ *
+ *  Every move adds one spot, and jumping neither adds nor removes any, so
+ *  a game can never return to a position, and every move leads to a
+ *  position with one more spot.  The tablebase is therefore solved
+ *  backwards, by retrograde analysis, one number of spots at a time from
+ *  the most a position can hold: each position's successors have been
+ *  solved already, and the positions with the same number of spots are
+ *  divided among all processors.  A position is won if some move wins
+ *  the game or leads to a position lost for the opponent (the winner
+ *  taking the quickest such move), and is otherwise lost (the loser
+ *  putting it off as long as possible).
+ *
+ *  A value is the number of moves left in the game with best play,
+ *  doubled, plus one if the player to move wins.  A tablebase file holds
+ *  a header (MAGIC and the number of boards), then, for each board size,
+ *  the size, the number of bits per value, and the number of positions,
+ *  and then the values, bit-packed in order of index.  Probes read them
+ *  directly from the mapped file.
+ *  @author Zeline Wang
+ */
+final class Tablebase {
+
+    /** Largest board size covered. */
+    static final int MAX_SIZE = 3;
+
+    /** Build a tablebase.  Usage:
+     *      java jump61.Tablebase FILE [MAXSIZE]
+     *  writes to FILE a tablebase for boards of 2 to MAXSIZE (by default,
+     *  MAX_SIZE) squares on a side. */
+    public static void main(String... args) throws IOException {
+        if (args.length == 0 || args.length > 2) {
+            System.err.println("Usage: java jump61.Tablebase FILE "
+                               + "[MAXSIZE]");
+            System.exit(1);
+        }
+        int maxSize = args.length > 1 ? Integer.parseInt(args[1])
+            : MAX_SIZE;
+        long start = System.nanoTime();
+        build(Paths.get(args[0]), maxSize);
+        System.out.printf("%.1f s%n", (System.nanoTime() - start) * 1e-9);
+    }
+
+    /** Solve boards of 2 to MAXSIZE squares on a side, and write their
+     *  values to FILE. */
+    static void build(Path file, int maxSize) throws IOException {
+        if (maxSize < 2 || maxSize > MAX_SIZE) {
+            throw new IllegalArgumentException("bad tablebase size");
+        }
+        ArrayList<long[]> tables = new ArrayList<>();
+        int[] bits = new int[maxSize + 1];
+        long words = 0;
+        for (int size = 2; size <= maxSize; size += 1) {
+            byte[] values = new Solver(size).solve();
+            int most = 0;
+            for (byte v : values) {
+                most = Math.max(most, v);
+            }
+            bits[size] = Integer.SIZE - Integer.numberOfLeadingZeros(most);
+            tables.add(pack(values, bits[size]));
+            words += tables.get(tables.size() - 1).length;
+        }
+        int header = Integer.BYTES * (2 + 3 * (maxSize - 1));
+        ByteBuffer buffer =
+            ByteBuffer.allocate(header + (int) words * Long.BYTES);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(maxSize - 1);
+        for (int size = 2; size <= maxSize; size += 1) {
+            buffer.putInt(size).putInt(bits[size])
+                .putInt(positions(Topology.of(size)));
+        }
+        for (long[] table : tables) {
+            for (long word : table) {
+                buffer.putLong(word);
+            }
+        }
+        buffer.flip();
+        try (FileChannel channel =
+             FileChannel.open(file, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /** Return the tablebase in FILE, as written by build. */
+    static Tablebase open(Path file) throws IOException {
+        long length = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            MappedByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (length < 2 * Integer.BYTES || buffer.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a tablebase");
+            }
+            return new Tablebase(file, buffer, length);
+        }
+    }
+
+    /** The tablebase in BUFFER, of LENGTH bytes, mapped from FILE. */
+    private Tablebase(Path file, ByteBuffer buffer, long length)
+        throws IOException {
+        int boards = buffer.getInt(Integer.BYTES);
+        if (boards < 0 || boards > MAX_SIZE - 1) {
+            throw new IOException(file + " is not a tablebase");
+        }
+        long offset = Integer.BYTES * (2 + 3 * boards);
+        for (int k = 0; k < boards; k += 1) {
+            int at = Integer.BYTES * (2 + 3 * k);
+            int size = buffer.getInt(at);
+            int bits = buffer.getInt(at + Integer.BYTES);
+            int count = buffer.getInt(at + 2 * Integer.BYTES);
+            if (size < 2 || size > MAX_SIZE || bits < 1 || bits > MAX_BITS
+                || count != positions(Topology.of(size))) {
+                throw new IOException(file + " is not a tablebase");
+            }
+            _bits[size] = bits;
+            _offsets[size] = offset;
+            offset += words(count, bits) * Long.BYTES;
+        }
+        if (offset != length) {
+            throw new IOException(file + " is truncated");
+        }
+        _values = buffer;
+    }
+
+    /** Return true iff I hold the values of positions on BOARD. */
+    boolean covers(Board board) {
+        return board.size() <= MAX_SIZE && _bits[board.size()] > 0;
+    }
+
+    /** Return the value of the position on BOARD, which I must cover. */
+    int probe(Board board) {
+        return value(board.size(), index(board));
+    }
+
+    /** Return the best move for the player to move on BOARD, whose game
+     *  must not be over, and which I must cover: a winning move that ends
+     *  the game soonest if there is one, and otherwise the move that puts
+     *  off the loss longest. */
+    int bestMove(Board board) {
+        Board scratch = new Board(board);
+        Side player = scratch.whoseMove();
+        int best = -1, bestScore = Integer.MIN_VALUE;
+        for (int n = 0; n < scratch.size() * scratch.size(); n += 1) {
+            if (!scratch.isLegal(player, n)) {
+                continue;
+            }
+            int token = scratch.makeMove(player, n);
+            int score;
+            if (scratch.isTerminal()) {
+                score = Integer.MAX_VALUE;
+            } else {
+                int value = probe(scratch);
+                score = wins(value) ? moves(value) - MAX_MOVES
+                    : MAX_MOVES - moves(value);
+            }
+            scratch.unmakeMove(token);
+            if (score > bestScore) {
+                best = n;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /** Return true iff VALUE says that the player to move wins. */
+    static boolean wins(int value) {
+        return (value & 1) != 0;
+    }
+
+    /** Return the number of moves left in the game with best play, as
+     *  given by VALUE. */
+    static int moves(int value) {
+        return value >>> 1;
+    }
+
+    /** Return the value of the position with index INDEX on a SIZE x SIZE
+     *  board. */
+    private int value(int size, int index) {
+        int bits = _bits[size];
+        long bit = (long) index * bits;
+        long word = _values.getLong((int) (_offsets[size] + (bit >>> 3)));
+        return (int) (word >>> (bit & 7)) & ((1 << bits) - 1);
+    }
+
+    /** Return the index of the position on BOARD. */
+    static int index(Board board) {
+        Topology topo = board.topology();
+        int index = 0;
+        for (int n = board.size() * board.size() - 1; n >= 0; n -= 1) {
+            Square sq = board.get(n);
+            int digit = 0;
+            if (sq.getSide() != WHITE) {
+                digit = 2 * sq.getSpots() - (sq.getSide() == RED ? 1 : 0);
+            }
+            index = index * (2 * topo.capacity(n) + 1) + digit;
+        }
+        return index;
+    }
+
+    /** Return the number of positions on a board with layout TOPO. */
+    private static int positions(Topology topo) {
+        int count = 1;
+        for (int n = topo.size() * topo.size() - 1; n >= 0; n -= 1) {
+            count *= 2 * topo.capacity(n) + 1;
+        }
+        return count;
+    }
+
+    /** Return VALUES packed BITS bits apiece into longs, the first in the
+     *  low-order bits of the first long, and with a long to spare at the
+     *  end, so that any value can be read by reading the long at the byte
+     *  where it begins. */
+    private static long[] pack(byte[] values, int bits) {
+        long[] words = new long[(int) words(values.length, bits)];
+        for (int i = 0; i < values.length; i += 1) {
+            long bit = (long) i * bits;
+            int w = (int) (bit >>> 6), shift = (int) (bit & 63);
+            words[w] |= (long) values[i] << shift;
+            if (shift + bits > Long.SIZE) {
+                words[w + 1] |= (long) values[i] >>> (Long.SIZE - shift);
+            }
+        }
+        return words;
+    }
+
+    /** Return the number of longs that pack uses for COUNT values of
+     *  BITS bits. */
+    private static long words(int count, int bits) {
+        return ((long) count * bits + Long.SIZE - 1) / Long.SIZE + 1;
+    }
+
+    /** Solves the positions of one board size. */
+    private static final class Solver {
+
+        /** A solver for SIZE x SIZE boards. */
+        Solver(int size) {
+            _size = size;
+            _topo = Topology.of(size);
+            _count = positions(_topo);
+            _values = new byte[_count];
+            _spots = new byte[_count];
+            _boards = ThreadLocal.withInitial(() -> new BitBoard(size));
+        }
+
+        /** Return the values of all positions, in order of index. */
+        byte[] solve() {
+            int most = 0;
+            for (int n = 0; n < _size * _size; n += 1) {
+                most += _topo.capacity(n);
+            }
+            new Chunks(-1).run();
+            for (int spots = most; spots >= _size * _size; spots -= 1) {
+                new Chunks(spots).run();
+            }
+            return _values;
+        }
+
+        /** Solve the positions with index LO <= I < HI that hold SPOTS
+         *  spots, or if SPOTS is negative, record the number of spots of
+         *  each, using BOARD as scratch. */
+        void solve(int lo, int hi, int spots, Board board) {
+            for (int i = lo; i < hi; i += 1) {
+                if (spots < 0) {
+                    _spots[i] = (byte) decode(i, board);
+                } else if (_spots[i] == spots) {
+                    decode(i, board);
+                    _values[i] = (byte) solve(board);
+                }
+            }
+        }
+
+        /** Return the value of the position on BOARD, all of whose
+         *  successors have been solved. */
+        private int solve(Board board) {
+            Side player = board.whoseMove();
+            if (board.isTerminal()) {
+                return board.getWinner() == player ? 1 : 0;
+            }
+            int win = Integer.MAX_VALUE, loss = 0;
+            for (int n = 0; n < _size * _size; n += 1) {
+                if (!board.isLegal(player, n)) {
+                    continue;
+                }
+                int token = board.makeMove(player, n);
+                int moves = 1;
+                boolean won = board.isTerminal();
+                if (!won) {
+                    int value = _values[index(board)];
+                    moves += moves(value);
+                    won = !wins(value);
+                }
+                board.unmakeMove(token);
+                if (won) {
+                    win = Math.min(win, moves);
+                } else {
+                    loss = Math.max(loss, moves);
+                }
+            }
+            return win < Integer.MAX_VALUE ? 2 * win + 1 : 2 * loss;
+        }
+
+        /** Set up on BOARD the position with index INDEX, and return the
+         *  number of spots in it. */
+        private int decode(int index, Board board) {
+            int spots = 0;
+            for (int n = 0; n < _size * _size; n += 1) {
+                int radix = 2 * _topo.capacity(n) + 1;
+                int digit = index % radix;
+                index /= radix;
+                if (digit == 0) {
+                    board.set(n, 1, WHITE);
+                    spots += 1;
+                } else {
+                    int num = (digit + 1) / 2;
+                    board.set(n, num, digit % 2 == 1 ? RED : BLUE);
+                    spots += num;
+                }
+            }
+            return spots;
+        }
+
+        /** One pass of solve over all positions, divided into chunks
+         *  among all processors. */
+        private final class Chunks extends RecursiveAction {
+
+            /** A pass solving the positions with SPOTS spots, or, if SPOTS
+             *  is negative, counting the spots of every position. */
+            Chunks(int spots) {
+                _passSpots = spots;
+            }
+
+            /** Perform the pass. */
+            void run() {
+                ForkJoinPool.commonPool().invoke(this);
+            }
+
+            @Override
+            protected void compute() {
+                int chunks = (_count + CHUNK - 1) / CHUNK;
+                RecursiveAction[] tasks = new RecursiveAction[chunks];
+                for (int k = 0; k < chunks; k += 1) {
+                    final int lo = k * CHUNK,
+                        hi = (int) Math.min(_count, (long) lo + CHUNK);
+                    tasks[k] = new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            solve(lo, hi, _passSpots, _boards.get());
+                        }
+                    };
+                }
+                invokeAll(tasks);
+            }
+
+            /** Number of spots of the positions to solve, or -1. */
+            private final int _passSpots;
+        }
+
+        /** Scratch boards, one per thread. */
+        private final ThreadLocal<Board> _boards;
+
+        /** Number of squares on a side. */
+        private final int _size;
+        /** Layout of the board. */
+        private final Topology _topo;
+        /** Number of positions. */
+        private final int _count;
+        /** Values of the positions solved so far, by index. */
+        private final byte[] _values;
+        /** Number of spots in each position, by index. */
+        private final byte[] _spots;
+    }
+
+    /** Positions solved by one task. */
+    private static final int CHUNK = 1 << 16;
+
+    /** More moves than any game on a covered board can last. */
+    private static final int MAX_MOVES = 1 << 10;
+
+    /** Most bits per value. */
+    private static final int MAX_BITS = 8;
+
+    /** Marks the start of a tablebase file ("J61T"). */
+    private static final int MAGIC = 0x4a363154;
+
+    /** Bits per value, by board size, or 0 for sizes not covered. */
+    private final int[] _bits = new int[MAX_SIZE + 1];
+    /** Position in the file of the values for each board size. */
+    private final long[] _offsets = new long[MAX_SIZE + 1];
+    /** The mapped file. */
+    private final ByteBuffer _values;
+}
@@ -2,6 +2,9 @@
  * University of California.  All rights reserved. */
 package jump61;
 
+import java.util.Formatter;
+import java.util.function.Consumer;
+
 /** An object that formats and sends messages and errors.
  *  @author P. N. Hilfinger
  */
@@ -29,4 +32,11 @@ class TextReporter implements Reporter {
         System.err.println();
     }
 
+    @Override
+    public void write(Consumer<Formatter> body) {
+        Formatter out = new Formatter(System.out);
+        body.accept(out);
+        out.flush();
+    }
+
 }
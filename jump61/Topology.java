@@ -0,0 +1,135 @@
+package jump61;
+
+import java.util.HashMap;
+
+/** The fixed layout of an N x N Jump61 board.  For each square, this
+ *  records its number of neighbors (which is also the number of spots it
+ *  can hold without being over-full) and the square numbers of those
+ *  neighbors, kept in one flat array in compressed-row form: the
+ *  neighbors of square #N are neighbor(K) for firstNeighbor(N) <= K <
+ *  firstNeighbor(N + 1).  Topologies are immutable and shared by all
+ *  boards of the same size, so the cascade never has to redo the row,
+ *  column, and edge arithmetic.
+ *
+ *  For boards larger than Defaults.MAX_BOARD_SIZE, where the neighbor
+ *  lists would take six times the space of the board itself, only the
+ *  capacities are kept (see tabulated), and such Topologies are not
+ *  shared.  Beyond Defaults.MAX_LARGE_BOARD_SIZE, not even those are:
+ *  capacities are worked out as needed, so that boards kept off the heap
+ *  (see CellStore) take only a few bits of heap per square.
+ *  @author Zeline Wang
+ */
+final class Topology {
+
+    /** Return the Topology of an N x N board. */
+    static synchronized Topology of(int N) {
+        if (N > Defaults.MAX_BOARD_SIZE) {
+            return new Topology(N);
+        }
+        Topology result = _cache.get(N);
+        if (result == null) {
+            result = new Topology(N);
+            _cache.put(N, result);
+        }
+        return result;
+    }
+
+    /** The Topology of an N x N board. */
+    private Topology(int N) {
+        _size = N;
+        if (N > Defaults.MAX_BOARD_SIZE) {
+            _firstNeighbor = _neighbors = null;
+            if (N > Defaults.MAX_LARGE_BOARD_SIZE) {
+                _capacity = null;
+                return;
+            }
+            _capacity = new byte[N * N];
+            for (int n = 0; n < N * N; n += 1) {
+                _capacity[n] = (byte) computeCapacity(n);
+            }
+            return;
+        }
+        _capacity = new byte[N * N];
+        _firstNeighbor = new int[N * N + 1];
+        _neighbors = new int[4 * N * (N - 1)];
+        int k = 0;
+        for (int n = 0; n < N * N; n += 1) {
+            int r = n / N, c = n % N;
+            _firstNeighbor[n] = k;
+            if (r > 0) {
+                _neighbors[k++] = n - N;
+            }
+            if (r < N - 1) {
+                _neighbors[k++] = n + N;
+            }
+            if (c > 0) {
+                _neighbors[k++] = n - 1;
+            }
+            if (c < N - 1) {
+                _neighbors[k++] = n + 1;
+            }
+            _capacity[n] = (byte) (k - _firstNeighbor[n]);
+        }
+        _firstNeighbor[N * N] = k;
+    }
+
+    /** Return the number of squares on a side. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of neighbors of square #N, which is the most
+     *  spots it may hold without being over-full. */
+    int capacity(int n) {
+        if (_capacity == null) {
+            return computeCapacity(n);
+        }
+        return _capacity[n];
+    }
+
+    /** Return the number of neighbors of square #N, from its row and
+     *  column. */
+    private int computeCapacity(int n) {
+        int N = _size, r = n / N, c = n % N;
+        return MAX_CAPACITY - (r == 0 ? 1 : 0) - (r == N - 1 ? 1 : 0)
+            - (c == 0 ? 1 : 0) - (c == N - 1 ? 1 : 0);
+    }
+
+    /** Return true iff I keep neighbor lists.  If not, the neighbors of
+     *  square #N are those above, below, left, and right of it, in that
+     *  order, that are on the board. */
+    boolean tabulated() {
+        return _neighbors != null;
+    }
+
+    /** Return the index of the first neighbor of square #N in the
+     *  neighbor list.  The neighbors of #N end where those of #N+1
+     *  begin.  Requires tabulated(). */
+    int firstNeighbor(int n) {
+        return _firstNeighbor[n];
+    }
+
+    /** Return entry #K of the neighbor list.  Requires tabulated(). */
+    int neighbor(int k) {
+        return _neighbors[k];
+    }
+
+    /** Number of neighbors of an interior square. */
+    private static final int MAX_CAPACITY = 4;
+
+    /** Topologies created so far, by size. */
+    private static final HashMap<Integer, Topology> _cache = new HashMap<>();
+
+    /** Number of squares on a side. */
+    private final int _size;
+    /** Number of neighbors of each square, or null if they are not
+     *  kept. */
+    private final byte[] _capacity;
+    /** Start of each square's neighbors in _neighbors, with a final entry
+     *  marking the end of the last square's, or null if not
+     *  tabulated(). */
+    private final int[] _firstNeighbor;
+    /** Neighbors of all squares, in order of square number, or null if
+     *  not tabulated(). */
+    private final int[] _neighbors;
+}
@@ -0,0 +1,158 @@
+package jump61;
+
+import java.util.Arrays;
+
+/** A fixed-size hash table of search results, keyed by Board.hashKey.
+ *  The number of entries is a power of two, so that an entry's slot is
+ *  just the low-order bits of its key.  Each entry packs into one long
+ *  the search depth, the kind of bound, the score, and the best move
+ *  found; its full key, XORed with that long, is kept alongside.  A
+ *  probe accepts an entry only if the two still XOR to the key it
+ *  wants, which detects collisions and also entries torn by another
+ *  thread's store, so several searching threads can share a table
+ *  without locking.  A table allocates nothing after construction.
+ *  @author Zeline Wang
+ */
+class TranspositionTable {
+
+    /** Kinds of bounds a stored score may represent. */
+    static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+    /** The result of probe when there is no entry for a key. */
+    static final long MISS = 0;
+
+    /** Policies for deciding whether a new entry replaces the one
+     *  already in its slot. */
+    enum Replacement {
+        /** Always replace. */
+        ALWAYS,
+        /** Keep an entry from the current search that was searched more
+         *  deeply than the new one; otherwise replace. */
+        DEPTH
+    }
+
+    /** A table occupying about MEGABYTES megabytes, using replacement
+     *  policy POLICY. */
+    TranspositionTable(int megabytes, Replacement policy) {
+        long entries = Long.highestOneBit(
+            Math.max(1, ((long) megabytes << 20) / ENTRY_BYTES));
+        _keys = new long[(int) Math.min(entries, MAX_ENTRIES)];
+        _data = new long[_keys.length];
+        _mask = _keys.length - 1;
+        _policy = policy;
+    }
+
+    /** Return the number of entries I can hold. */
+    int capacity() {
+        return _keys.length;
+    }
+
+    /** Return my replacement policy. */
+    Replacement policy() {
+        return _policy;
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        Arrays.fill(_keys, 0);
+        Arrays.fill(_data, MISS);
+        _generation = 0;
+    }
+
+    /** Note the start of a new search.  Entries from earlier searches
+     *  remain usable, but are replaced in preference to current ones. */
+    void newSearch() {
+        _generation = (_generation + 1) & GENERATION_MASK;
+    }
+
+    /** Return the packed entry for position KEY, or MISS if there is
+     *  none.  Unpack it with depth, bound, score, and move. */
+    long probe(long key) {
+        int slot = (int) key & _mask;
+        long data = _data[slot];
+        if (data != MISS && (_keys[slot] ^ data) == key) {
+            return data;
+        }
+        return MISS;
+    }
+
+    /** Record that position KEY, searched to DEPTH, has a score of SCORE,
+     *  which is a bound of kind BOUND, and that its best move is MOVE
+     *  (negative if none). */
+    void store(long key, int depth, int bound, int score, int move) {
+        int slot = (int) key & _mask;
+        long old = _data[slot];
+        if (_policy == Replacement.DEPTH && old != MISS
+            && (_keys[slot] ^ old) != key
+            && generation(old) == _generation
+            && depth(old) > depth) {
+            return;
+        }
+        if (move < 0 || move + 1 > MOVE_MASK) {
+            move = -1;
+        }
+        long data = (score & SCORE_MASK)
+            | ((long) (move + 1) << MOVE_SHIFT)
+            | ((long) Math.min(depth, DEPTH_MASK) << DEPTH_SHIFT)
+            | ((long) bound << BOUND_SHIFT)
+            | ((long) _generation << GENERATION_SHIFT);
+        _keys[slot] = key ^ data;
+        _data[slot] = data;
+    }
+
+    /** Return the search depth recorded in packed entry DATA. */
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & DEPTH_MASK;
+    }
+
+    /** Return the kind of bound (EXACT, LOWER, or UPPER) recorded in
+     *  packed entry DATA. */
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+
+    /** Return the score recorded in packed entry DATA. */
+    static int score(long data) {
+        return (int) data;
+    }
+
+    /** Return the best move recorded in packed entry DATA, or -1 if
+     *  none. */
+    static int move(long data) {
+        return (int) ((data >>> MOVE_SHIFT) & MOVE_MASK) - 1;
+    }
+
+    /** Return the search generation recorded in packed entry DATA. */
+    private static int generation(long data) {
+        return (int) (data >>> GENERATION_SHIFT) & GENERATION_MASK;
+    }
+
+    /** Bytes of storage per entry. */
+    private static final int ENTRY_BYTES = 2 * Long.BYTES;
+    /** Largest number of entries. */
+    private static final long MAX_ENTRIES = 1 << 30;
+
+    /** Layout of a packed entry: the score in the low 32 bits, then
+     *  one more than the best move (0 for none), the depth, the bound
+     *  kind, and the generation of the search that stored it. */
+    private static final long SCORE_MASK = 0xffffffffL;
+    /** Position and width of the move field. */
+    private static final int MOVE_SHIFT = 32, MOVE_MASK = (1 << 22) - 1;
+    /** Position and width of the depth field. */
+    private static final int DEPTH_SHIFT = 54, DEPTH_MASK = (1 << 6) - 1;
+    /** Position and width of the bound field. */
+    private static final int BOUND_SHIFT = 60, BOUND_MASK = 3;
+    /** Position and width of the generation field. */
+    private static final int GENERATION_SHIFT = 62, GENERATION_MASK = 3;
+
+    /** Full keys of the entries. */
+    private final long[] _keys;
+    /** Packed contents of the entries (MISS for empty slots). */
+    private final long[] _data;
+    /** Mask selecting a slot number from a key. */
+    private final int _mask;
+    /** How new entries displace old ones. */
+    private final Replacement _policy;
+    /** Generation number of the current search. */
+    private int _generation;
+}
@@ -0,0 +1,83 @@
+package jump61;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.IntConsumer;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** A CellScan that compares as many squares at once as the machine's
+ *  vectors hold, using the incubating vector API.  Squares left over at
+ *  the end of a row or board are scanned one at a time.  Loaded only by
+ *  CellScan.get, which falls back to a plain CellScan if this class
+ *  cannot be loaded.
+ *  @author Zeline Wang
+ */
+class VectorCellScan extends CellScan {
+
+    @Override
+    void overfull(CellStore cells, IntConsumer action) {
+        ByteBuffer view = cells.view();
+        int N = cells.size(), bound = SPECIES.loopBound(N);
+        for (int r = 0; r < N; r += 1) {
+            byte[] limits = limits(N, r);
+            int start = r * N, c;
+            for (c = 0; c < bound; c += LANES) {
+                VectorMask<Byte> over =
+                    load(view, start + c)
+                    .compare(VectorOperators.GE,
+                             ByteVector.fromArray(SPECIES, limits, c));
+                if (over.anyTrue()) {
+                    for (long bits = over.toLong(); bits != 0;
+                         bits &= bits - 1) {
+                        action.accept(start + c
+                                      + Long.numberOfTrailingZeros(bits));
+                    }
+                }
+            }
+            for (; c < N; c += 1) {
+                if (view.get(start + c) >= limits[c]) {
+                    action.accept(start + c);
+                }
+            }
+        }
+    }
+
+    @Override
+    boolean equal(CellStore a, CellStore b) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        ByteBuffer viewA = a.view(), viewB = b.view();
+        int length = a.length(), bound = SPECIES.loopBound(length);
+        int n;
+        for (n = 0; n < bound; n += LANES) {
+            if (load(viewA, n).compare(VectorOperators.NE, load(viewB, n))
+                .anyTrue()) {
+                return false;
+            }
+        }
+        for (; n < length; n += 1) {
+            if (viewA.get(n) != viewB.get(n)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the vector of squares starting at square #N of VIEW. */
+    private static ByteVector load(ByteBuffer view, int n) {
+        return ByteVector.fromByteBuffer(SPECIES, view, n,
+                                         ByteOrder.nativeOrder());
+    }
+
+    /** The shape of vector used. */
+    private static final VectorSpecies<Byte> SPECIES =
+        ByteVector.SPECIES_PREFERRED;
+
+    /** Number of squares in a vector. */
+    private static final int LANES = SPECIES.length();
+}
@@ -0,0 +1,49 @@
+package jump61;
+
+/** A small, fast pseudo-random number generator (Marsaglia's xorshift64*)
+ *  for random playouts, which need several random numbers per move.
+ *  Unlike java.util.Random, it is not synchronized and keeps its state in
+ *  one plain long, so each thread should have its own.  A given seed
+ *  always produces the same sequence.
+ *  @author Zeline Wang
+ */
+final class XorShift {
+
+    /** A generator seeded with SEED. */
+    XorShift(long seed) {
+        setSeed(seed);
+    }
+
+    /** Restart my sequence as for a new generator seeded with SEED. */
+    void setSeed(long seed) {
+        long z = seed + GOLDEN;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        z ^= z >>> 31;
+        _state = z == 0 ? GOLDEN : z;
+    }
+
+    /** Return the next 64 random bits. */
+    long nextLong() {
+        long x = _state;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        _state = x;
+        return x * 0x2545f4914f6cdd1dL;
+    }
+
+    /** Return a random integer K, 0 <= K < BOUND, which must be positive.
+     *  Scales the high bits rather than taking a remainder; for the
+     *  small bounds needed here, the bias is far too small to matter. */
+    int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /** Increment used to scramble seeds (2^64 divided by the golden
+     *  ratio). */
+    private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+    /** Current state.  Never 0. */
+    private long _state;
+}